@@ -0,0 +1,325 @@
+package io.nshusa.rsam;
+
+import io.nshusa.rsam.util.CompressionUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The set of files that differ between two caches, which can be packed and applied to another copy of the older cache.
+ */
+public final class CacheDelta {
+
+    public static final int ADDED = 0;
+    public static final int CHANGED = 1;
+    public static final int REMOVED = 2;
+
+    /**
+     * The type, store id, file id and length written before the data of each change.
+     */
+    private static final int CHANGE_HEADER_LENGTH = 10;
+
+    private static final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
+    public static final class Change {
+
+        private final int type;
+        private final int storeId;
+        private final int fileId;
+        private final byte[] data;
+
+        public Change(int type, int storeId, int fileId, byte[] data) {
+            this.type = type;
+            this.storeId = storeId;
+            this.fileId = fileId;
+            this.data = data;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public int getStoreId() {
+            return storeId;
+        }
+
+        public int getFileId() {
+            return fileId;
+        }
+
+        /**
+         * @return The new contents of the file, or an empty array if the file was removed.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+    }
+
+    private final List<Change> changes;
+
+    /**
+     * @param changes The changes, which are kept sorted by store so that each store is written in one batch.
+     */
+    public CacheDelta(List<Change> changes) {
+        this.changes = new ArrayList<>(changes);
+        this.changes.sort(Comparator.comparingInt(Change::getStoreId));
+    }
+
+    public static CacheDelta diff(Path from, Path to) throws IOException {
+        try (IndexedFileSystem oldFs = IndexedFileSystem.init(from); IndexedFileSystem newFs = IndexedFileSystem.init(to)) {
+            if (!oldFs.load() || !newFs.load()) {
+                throw new IOException(String.format("could not load caches from=%s to=%s", from, to));
+            }
+
+            return diff(oldFs, newFs);
+        }
+    }
+
+    /**
+     * Compares every file of two caches. Each store is hashed on its own thread, as a store only reads one file at a
+     * time, and only the files that were added or changed in {@code to} are kept in memory.
+     */
+    public static CacheDelta diff(IndexedFileSystem from, IndexedFileSystem to) {
+        final List<Change> changes = new ArrayList<>();
+
+        final byte[][][] oldHashes = new byte[255][][];
+        final byte[][][] newHashes = new byte[255][][];
+
+        final List<Runnable> tasks = new ArrayList<>();
+
+        for (int storeId = 0; storeId < 255; storeId++) {
+            final RSFileStore oldStore = from.getStore(storeId);
+            final RSFileStore newStore = to.getStore(storeId);
+
+            if (oldStore == null && newStore == null) {
+                continue;
+            }
+
+            final int count = Math.max(oldStore == null ? 0 : oldStore.getFileCount(), newStore == null ? 0 : newStore.getFileCount());
+
+            final byte[][] oldStoreHashes = oldHashes[storeId] = new byte[count][];
+            final byte[][] newStoreHashes = newHashes[storeId] = new byte[count][];
+
+            if (oldStore != null) {
+                tasks.add(() -> hash(oldStore, oldStoreHashes));
+            }
+
+            if (newStore != null) {
+                tasks.add(() -> hash(newStore, newStoreHashes));
+            }
+        }
+
+        tasks.parallelStream().forEach(Runnable::run);
+
+        for (int storeId = 0; storeId < 255; storeId++) {
+            if (oldHashes[storeId] == null) {
+                continue;
+            }
+
+            final RSFileStore newStore = to.getStore(storeId);
+
+            for (int fileId = 0; fileId < oldHashes[storeId].length; fileId++) {
+                if (Arrays.equals(oldHashes[storeId][fileId], newHashes[storeId][fileId])) {
+                    continue;
+                }
+
+                if (newHashes[storeId][fileId] == null) {
+                    changes.add(new Change(REMOVED, storeId, fileId, new byte[0]));
+                    continue;
+                }
+
+                final ByteBuffer data = newStore.readFile(fileId);
+                final byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+
+                changes.add(new Change(oldHashes[storeId][fileId] == null ? ADDED : CHANGED, storeId, fileId, bytes));
+            }
+        }
+
+        return new CacheDelta(changes);
+    }
+
+    private static void hash(RSFileStore store, byte[][] hashes) {
+        final MessageDigest md = digest.get();
+
+        for (int fileId = 0; fileId < hashes.length; fileId++) {
+            final ByteBuffer data = store.readFile(fileId);
+
+            // empty files are how removed files are written, so they count as missing
+            if (data == null || !data.hasRemaining()) {
+                continue;
+            }
+
+            md.update(data);
+            hashes[fileId] = md.digest();
+        }
+    }
+
+    /**
+     * Decodes a delta packed by {@link #encode()}, consuming the rest of the buffer.
+     *
+     * @throws IOException If the data is corrupt, including counts or lengths that run past the end of the data.
+     */
+    public static CacheDelta decode(ByteBuffer buffer) throws IOException {
+        final ByteBuffer unpacked = ByteBuffer.wrap(CompressionUtils.degzip(buffer));
+        buffer.position(buffer.limit());
+
+        try {
+            final int count = unpacked.getInt();
+
+            // the counts and lengths are not trusted to size anything until they fit in what is left
+            if (count < 0 || count > unpacked.remaining() / CHANGE_HEADER_LENGTH) {
+                throw new IOException(String.format("change count=%d does not fit in %d bytes", count, unpacked.remaining()));
+            }
+
+            final List<Change> changes = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                final int type = unpacked.get() & 0xFF;
+                final int storeId = unpacked.get() & 0xFF;
+                final int fileId = unpacked.getInt();
+                final int length = unpacked.getInt();
+
+                if (type > REMOVED || fileId < 0) {
+                    throw new IOException(String.format("invalid change type=%d storeId=%d fileId=%d", type, storeId, fileId));
+                }
+
+                if (length < 0 || length > unpacked.remaining()) {
+                    throw new IOException(String.format("change length=%d does not fit in %d bytes", length, unpacked.remaining()));
+                }
+
+                final byte[] data = new byte[length];
+                unpacked.get(data);
+
+                changes.add(new Change(type, storeId, fileId, data));
+            }
+
+            return new CacheDelta(changes);
+        } catch (BufferUnderflowException ex) {
+            throw new EOFException("unexpected end of delta");
+        }
+    }
+
+    public byte[] encode() throws IOException {
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+
+        try (DataOutputStream os = new DataOutputStream(new GZIPOutputStream(bout))) {
+            os.writeInt(changes.size());
+
+            for (Change change : changes) {
+                os.writeByte(change.getType());
+                os.writeByte(change.getStoreId());
+                os.writeInt(change.getFileId());
+                os.writeInt(change.getData().length);
+                os.write(change.getData());
+            }
+        }
+
+        return bout.toByteArray();
+    }
+
+    /**
+     * Writes the changed files into {@code target}, one store at a time in the order of {@link #getChanges()}. Removed
+     * files are written as empty files and stores that only have added files are created if the target lacks them.
+     *
+     * Every store is checked before anything is written, so a target missing a store that the delta changes is left
+     * untouched. A write can still fail part way through, in which case the changes before it stay applied.
+     *
+     * @return The number of changes applied, counted from the start of {@link #getChanges()}. This is less than the
+     * number of changes if a store was missing or a write failed.
+     */
+    public int apply(IndexedFileSystem target) {
+        final RSFileStore[] stores = new RSFileStore[256];
+        final boolean[] create = new boolean[256];
+
+        for (int start = 0, end; start < changes.size(); start = end) {
+            final int storeId = changes.get(start).getStoreId();
+            boolean added = true;
+
+            for (end = start; end < changes.size() && changes.get(end).getStoreId() == storeId; end++) {
+                added &= changes.get(end).getType() == ADDED;
+            }
+
+            stores[storeId] = target.getStore(storeId);
+
+            // a delta can only add a store when nothing in it existed before
+            if (stores[storeId] == null) {
+                if (!added) {
+                    return 0;
+                }
+
+                create[storeId] = true;
+            }
+        }
+
+        try {
+            for (int storeId = 0; storeId < stores.length; storeId++) {
+                if (create[storeId]) {
+                    if (!target.createStore(storeId)) {
+                        return 0;
+                    }
+
+                    stores[storeId] = target.getStore(storeId);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return 0;
+        }
+
+        int applied = 0;
+
+        while (applied < changes.size()) {
+            final RSFileStore store = stores[changes.get(applied).getStoreId()];
+
+            // hold the store for the whole batch so no other writer lands between its files
+            synchronized (store) {
+                for (int storeId = changes.get(applied).getStoreId();
+                     applied < changes.size() && changes.get(applied).getStoreId() == storeId; applied++) {
+                    final Change change = changes.get(applied);
+
+                    if (!store.writeFile(change.getFileId(), change.getData())) {
+                        return applied;
+                    }
+                }
+            }
+        }
+
+        return applied;
+    }
+
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    public int count(int type) {
+        int count = 0;
+        for (Change change : changes) {
+            if (change.getType() == type) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -13,16 +13,29 @@ public final class IndexedFileSystem implements Closeable {
 
     private Path root;
 
+    private final Path baseRoot;
+
     private final RSFileStore[] fileStores = new RSFileStore[255];
 
     private boolean loaded;
 
-    private IndexedFileSystem(Path root) {
+    private ResponseCache responseCache;
+
+    private IndexedFileSystem(Path root, Path baseRoot) {
         this.root = root;
+        this.baseRoot = baseRoot;
     }
 
     public static IndexedFileSystem init(Path root) {
-        return new IndexedFileSystem(root);
+        return new IndexedFileSystem(root, null);
+    }
+
+    /**
+     * Creates a file system that layers the cache in {@code overlay} over the cache in {@code base}. The base cache is
+     * opened read-only, files are read from the overlay first and all writes go to the overlay.
+     */
+    public static IndexedFileSystem overlay(Path base, Path overlay) {
+        return new IndexedFileSystem(overlay, base);
     }
 
     public boolean load() {
@@ -33,14 +46,32 @@ public final class IndexedFileSystem implements Closeable {
 
             final Path dataPath = root.resolve("main_file_cache.dat");
 
+            if (baseRoot != null) {
+                if (!Files.exists(baseRoot.resolve("main_file_cache.dat"))) {
+                    return false;
+                }
+
+                if (!Files.exists(dataPath)) {
+                    Files.createFile(dataPath);
+                }
+            }
+
             if (!Files.exists(dataPath)) {
                 return false;
             }
 
             for (int i = 0; i < 255; i++) {
                 Path indexPath = root.resolve("main_file_cache.idx" + i);
+
+                RSFileStore base = baseRoot == null ? null : loadBaseStore(i);
+
+                if (base != null && !Files.exists(indexPath)) {
+                    Files.createFile(indexPath);
+                }
+
                 if (Files.exists(indexPath)) {
-                    fileStores[i] = new RSFileStore(i, new RandomAccessFile(dataPath.toFile(), "rw").getChannel(), new RandomAccessFile(indexPath.toFile(), "rw").getChannel());
+                    fileStores[i] = new RSFileStore(i, new RandomAccessFile(dataPath.toFile(), "rw").getChannel(), new RandomAccessFile(indexPath.toFile(), "rw").getChannel(), base);
+                    fileStores[i].setResponseCache(responseCache);
                 }
             }
             loaded = true;
@@ -51,6 +82,16 @@ public final class IndexedFileSystem implements Closeable {
         return true;
     }
 
+    private RSFileStore loadBaseStore(int storeId) throws IOException {
+        final Path indexPath = baseRoot.resolve("main_file_cache.idx" + storeId);
+
+        if (!Files.exists(indexPath)) {
+            return null;
+        }
+
+        return new RSFileStore(storeId, new RandomAccessFile(baseRoot.resolve("main_file_cache.dat").toFile(), "r").getChannel(), new RandomAccessFile(indexPath.toFile(), "r").getChannel());
+    }
+
     public boolean createStore(int storeId) throws IOException {
         if (storeId < 0 || storeId >= fileStores.length) {
             return false;
@@ -71,7 +112,8 @@ public final class IndexedFileSystem implements Closeable {
         if (!Files.exists(path)) {
             Files.createFile(path);
         }
-        fileStores[storeId] = new RSFileStore(storeId + 1, new RandomAccessFile(dataPath.toFile(), "rw").getChannel(), new RandomAccessFile(path.toFile(), "rw").getChannel());
+        fileStores[storeId] = new RSFileStore(storeId, new RandomAccessFile(dataPath.toFile(), "rw").getChannel(), new RandomAccessFile(path.toFile(), "rw").getChannel());
+        fileStores[storeId].setResponseCache(responseCache);
         return true;
     }
 
@@ -153,6 +195,66 @@ public final class IndexedFileSystem implements Closeable {
         return true;
     }
 
+    /**
+     * Writes every file visible through this file system, including those only found in the base of an overlay, into a
+     * new cache at {@code target}.
+     */
+    public boolean flatten(Path target) {
+        if (!isLoaded()) {
+            return false;
+        }
+
+        try {
+            if (!Files.exists(target)) {
+                Files.createDirectories(target);
+            }
+
+            Files.deleteIfExists(target.resolve("main_file_cache.dat"));
+            Files.createFile(target.resolve("main_file_cache.dat"));
+
+            for (int store = 0; store < fileStores.length; store++) {
+                Path indexPath = target.resolve("main_file_cache.idx" + store);
+
+                Files.deleteIfExists(indexPath);
+
+                if (fileStores[store] != null) {
+                    Files.createFile(indexPath);
+                }
+            }
+
+            try (IndexedFileSystem flattened = IndexedFileSystem.init(target)) {
+                if (!flattened.load()) {
+                    return false;
+                }
+
+                for (RSFileStore fileStore : fileStores) {
+                    if (fileStore == null) {
+                        continue;
+                    }
+
+                    RSFileStore targetStore = flattened.getStore(fileStore.getStoreId());
+
+                    for (int file = 0; file < fileStore.getFileCount(); file++) {
+                        ByteBuffer data = fileStore.readFile(file);
+
+                        if (data == null) {
+                            continue;
+                        }
+
+                        if (!targetStore.writeFile(file, data.array())) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return false;
+        }
+
+        return true;
+    }
+
     public RSFileStore getStore(int storeId) {
         if (storeId < 0 || storeId >= fileStores.length) {
             return null;
@@ -170,6 +272,33 @@ public final class IndexedFileSystem implements Closeable {
         return store.readFile(fileId);
     }
 
+    public boolean writeFile(int storeId, int fileId, byte[] data) {
+        RSFileStore store = getStore(storeId);
+
+        if (store == null) {
+            return false;
+        }
+
+        return store.writeFile(fileId, data);
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Attaches a cache of framed responses to every store, existing and future, of this file system.
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+
+        for (RSFileStore fileStore : fileStores) {
+            if (fileStore != null) {
+                fileStore.setResponseCache(responseCache);
+            }
+        }
+    }
+
     public Path getRoot() {
         return root;
     }
@@ -191,6 +320,14 @@ public final class IndexedFileSystem implements Closeable {
         return count;
     }
 
+    public Path getBaseRoot() {
+        return baseRoot;
+    }
+
+    public boolean isOverlay() {
+        return baseRoot != null;
+    }
+
     public boolean isLoaded() {
         return loaded;
     }
@@ -200,6 +337,10 @@ public final class IndexedFileSystem implements Closeable {
             close();
             loaded = false;
             Arrays.fill(fileStores, null);
+
+            if (responseCache != null) {
+                responseCache.clear();
+            }
         } catch (Exception ex) {
             ex.printStackTrace();
         }
@@ -6,6 +6,10 @@ import io.nshusa.rsam.util.ByteBufferUtils;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
@@ -31,7 +35,28 @@ public final class RSFileStore {
     private static final int TOTAL_BLOCK_LENGTH = HEADER_LENGTH + BLOCK_LENGTH;
     private static final int META_BLOCK_LENGTH = 6;
 
-    private static final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_LENGTH + HEADER_LENGTH);
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_LENGTH + HEADER_LENGTH);
+
+    private static final int MAX_CACHED_BLOCK_LISTS = 1024;
+
+    private static final class BlockList {
+
+        private final int size;
+        private final int[] blocks;
+
+        private BlockList(int size, int[] blocks) {
+            this.size = size;
+            this.blocks = blocks;
+        }
+
+    }
+
+    private final Map<Integer, BlockList> blockLists = new LinkedHashMap<Integer, BlockList>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, BlockList> eldest) {
+            return size() > MAX_CACHED_BLOCK_LISTS;
+        }
+    };
 
     private final int storeId;
 
@@ -39,10 +64,23 @@ public final class RSFileStore {
 
     private final FileChannel metaChannel;
 
+    private final RSFileStore base;
+
+    private volatile ResponseCache responseCache;
+
     public RSFileStore(int storeId, FileChannel dataChannel, FileChannel metaChannel) {
+        this(storeId, dataChannel, metaChannel, null);
+    }
+
+    /**
+     * Creates a store that layers its own files over {@code base}. Files are read from this store first and from the base
+     * if this store does not contain them, writes only ever touch this store.
+     */
+    public RSFileStore(int storeId, FileChannel dataChannel, FileChannel metaChannel, RSFileStore base) {
         this.storeId = storeId;
         this.dataChannel = dataChannel;
         this.metaChannel = metaChannel;
+        this.base = base;
     }
 
     public int calculateChecksum(RSArchive updateArchive, int fileId) throws IOException {
@@ -82,80 +120,383 @@ public final class RSFileStore {
     }
 
     public synchronized ByteBuffer readFile(int fileId) {
+        if (base != null && !containsFile(fileId)) {
+            return base.readFile(fileId);
+        }
+
         try {
+            final BlockList list = blockLists.get(fileId);
+            final ByteBuffer fileBuffer;
 
-            if (fileId * META_BLOCK_LENGTH + META_BLOCK_LENGTH > metaChannel.size()) {
-                return null;
-            }
+            if (list != null) {
+                fileBuffer = ByteBuffer.allocate(list.size);
+                readBlocks(fileId, list, fileBuffer);
+            } else {
+                final int size = readSize(fileId);
 
-            buffer.position(0).limit(META_BLOCK_LENGTH);
-            metaChannel.read(buffer, fileId * META_BLOCK_LENGTH);
-            buffer.flip();
+                if (size == -1) {
+                    return null;
+                }
 
-            int size = ByteBufferUtils.readU24Int(buffer);
-            int block = ByteBufferUtils.readU24Int(buffer);
+                fileBuffer = ByteBuffer.allocate(size);
 
-            if (block <= 0 || (long) block > dataChannel.size() / 520L) {
-                return null;
+                if (walk(fileId, fileBuffer) == null) {
+                    return null;
+                }
             }
 
-            ByteBuffer fileBuffer = ByteBuffer.allocate(size);
+            fileBuffer.flip();
+            return fileBuffer;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
 
-            int remaining = size;
-            int chunk = 0;
-            int blockLength = fileId <= 0xFFFF ? BLOCK_LENGTH : EXPANDED_BLOCK_LENGTH;
-            int headerLength = fileId <= 0xFFFF ? HEADER_LENGTH : EXPANDED_HEADER_LENGTH;
+    /**
+     * Reads a file straight into the specified buffer, starting at its current position.
+     *
+     * @return {@code true} if the whole file was read, {@code false} if it could not be read or does not fit.
+     */
+    public synchronized boolean readFile(int fileId, ByteBuffer dst) {
+        if (base != null && !containsFile(fileId)) {
+            return base.readFile(fileId, dst);
+        }
 
-            while (remaining > 0) {
-                if (block == 0) {
-                    return null;
+        final int start = dst.position();
+
+        try {
+            final BlockList list = blockLists.get(fileId);
+
+            if (list != null) {
+                if (dst.remaining() < list.size) {
+                    return false;
                 }
 
-                int blockSize = remaining > blockLength ? blockLength : remaining;
-                buffer.position(0).limit(blockSize + headerLength);
-                dataChannel.read(buffer, block * TOTAL_BLOCK_LENGTH);
-                buffer.flip();
+                readBlocks(fileId, list, dst);
+                return true;
+            }
 
-                int currentFile, currentChunk, nextBlock, currentIndex;
+            final int size = readSize(fileId);
 
-                if (fileId <= 65535) {
-                    currentFile = buffer.getShort() & 0xFFFF;
-                    currentChunk = buffer.getShort() & 0xFFFF;
-                    nextBlock = ByteBufferUtils.readU24Int(buffer);
-                    currentIndex = buffer.get() & 0xFF;
-                } else {
-                    currentFile = buffer.getInt();
-                    currentChunk = buffer.getShort() & 0xFFFF;
-                    nextBlock = ByteBufferUtils.readU24Int(buffer);
-                    currentIndex = buffer.get() & 0xFF;
-                }
+            if (size == -1 || dst.remaining() < size) {
+                return false;
+            }
 
-                if (fileId != currentFile || chunk != currentChunk || (storeId + 1) != currentIndex) {
-                    return null;
-                }
-                if (nextBlock < 0 || nextBlock > dataChannel.size() / TOTAL_BLOCK_LENGTH) {
-                    return null;
-                }
+            if (walk(fileId, dst) == null) {
+                dst.position(start);
+                return false;
+            }
+
+            return true;
+        } catch (IOException ex) {
+            dst.position(start);
+            ex.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Transfers a file to the specified channel without copying it through the heap. The channel must be blocking, as a
+     * non-blocking channel may accept only part of the file, use {@link #transferFile(int, long, WritableByteChannel)}
+     * to resume from where it stopped instead.
+     *
+     * @return {@code true} if the whole file was transferred, {@code false} otherwise.
+     * @throws IllegalArgumentException If the channel is in non-blocking mode.
+     */
+    public synchronized boolean transferFile(int fileId, WritableByteChannel out) {
+        if (out instanceof SelectableChannel && !((SelectableChannel) out).isBlocking()) {
+            throw new IllegalArgumentException("channel must be in blocking mode");
+        }
 
-                int rem = buffer.remaining();
+        if (base != null && !containsFile(fileId)) {
+            return base.transferFile(fileId, out);
+        }
+
+        try {
+            final BlockList list = getBlockList(fileId);
+            return list != null && transferFile(fileId, list, 0, out) == list.size;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Transfers a file to the specified channel without copying it through the heap, starting at an offset into the
+     * file. Stops early once the channel accepts no more, so a non-blocking channel can be resumed by calling again with
+     * the offset moved past the bytes transferred.
+     *
+     * @return The number of bytes transferred, which is less than the rest of the file if the channel stopped accepting
+     * them, or {@code -1} if the file does not exist, the offset is past its end or it could not be read.
+     */
+    public synchronized long transferFile(int fileId, long offset, WritableByteChannel out) {
+        if (base != null && !containsFile(fileId)) {
+            return base.transferFile(fileId, offset, out);
+        }
 
-                for (int i = 0; i < rem; i++) {
-                    fileBuffer.put(buffer.get());
+        try {
+            final BlockList list = getBlockList(fileId);
+
+            if (list == null || offset < 0 || offset > list.size) {
+                return -1;
+            }
+
+            return transferFile(fileId, list, (int) offset, out);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * @return The number of bytes transferred from the offset until the end of the file or until the channel accepted
+     * none.
+     */
+    private long transferFile(int fileId, BlockList list, int offset, WritableByteChannel out) throws IOException {
+        final int blockLength = fileId <= 0xFFFF ? BLOCK_LENGTH : EXPANDED_BLOCK_LENGTH;
+        final int headerLength = fileId <= 0xFFFF ? HEADER_LENGTH : EXPANDED_HEADER_LENGTH;
+
+        long total = 0;
+
+        for (int i = offset / blockLength; i < list.blocks.length; i++) {
+            final int blockStart = i * blockLength;
+            final int blockSize = Math.min(blockLength, list.size - blockStart);
+
+            long position = (long) list.blocks[i] * TOTAL_BLOCK_LENGTH + headerLength + Math.max(0, offset - blockStart);
+            final long end = (long) list.blocks[i] * TOTAL_BLOCK_LENGTH + headerLength + blockSize;
+
+            while (position < end) {
+                final long transferred = dataChannel.transferTo(position, end - position, out);
+
+                if (transferred <= 0) {
+                    return total;
                 }
 
-                remaining -= blockSize;
-                block = nextBlock;
+                position += transferred;
+                total += transferred;
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Gets the size of a file in bytes.
+     *
+     * @return The size, or {@code -1} if the file could not be found.
+     */
+    public synchronized int getFileSize(int fileId) {
+        if (base != null && !containsFile(fileId)) {
+            return base.getFileSize(fileId);
+        }
+
+        try {
+            final BlockList list = getBlockList(fileId);
+            return list == null ? -1 : list.size;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Reads {@code length} bytes of a file starting at {@code offset}, only touching the blocks that cover the range.
+     *
+     * @return The requested bytes, truncated to the end of the file, or {@code null} if the file could not be read.
+     */
+    public synchronized ByteBuffer readRange(int fileId, int offset, int length) {
+        if (base != null && !containsFile(fileId)) {
+            return base.readRange(fileId, offset, length);
+        }
+
+        try {
+            if (offset < 0 || length < 0) {
+                return null;
+            }
+
+            final BlockList list = getBlockList(fileId);
+
+            if (list == null || offset > list.size) {
+                return null;
+            }
+
+            final int blockLength = fileId <= 0xFFFF ? BLOCK_LENGTH : EXPANDED_BLOCK_LENGTH;
+            final int headerLength = fileId <= 0xFFFF ? HEADER_LENGTH : EXPANDED_HEADER_LENGTH;
+
+            final ByteBuffer rangeBuffer = ByteBuffer.allocate(Math.min(length, list.size - offset));
+
+            int chunk = offset / blockLength;
+            int chunkOffset = offset % blockLength;
+
+            while (rangeBuffer.hasRemaining()) {
+                int read = Math.min(blockLength - chunkOffset, rangeBuffer.remaining());
+
+                rangeBuffer.limit(rangeBuffer.position() + read);
+                readFully(rangeBuffer, (long) list.blocks[chunk] * TOTAL_BLOCK_LENGTH + headerLength + chunkOffset);
+                rangeBuffer.limit(rangeBuffer.capacity());
+
+                chunkOffset = 0;
                 chunk++;
             }
-            fileBuffer.position(0);
-            return fileBuffer;
-        } catch (IOException _ex) {
-            _ex.printStackTrace();
+
+            rangeBuffer.flip();
+            return rangeBuffer;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private boolean containsFile(int fileId) {
+        try {
+            return getBlockList(fileId) != null;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the payload of every block of a file whose block list is already known.
+     */
+    private void readBlocks(int fileId, BlockList list, ByteBuffer dst) throws IOException {
+        final int blockLength = fileId <= 0xFFFF ? BLOCK_LENGTH : EXPANDED_BLOCK_LENGTH;
+        final int headerLength = fileId <= 0xFFFF ? HEADER_LENGTH : EXPANDED_HEADER_LENGTH;
+
+        final int limit = dst.limit();
+        int remaining = list.size;
+
+        try {
+            for (int block : list.blocks) {
+                int blockSize = remaining > blockLength ? blockLength : remaining;
+
+                dst.limit(dst.position() + blockSize);
+                readFully(dst, (long) block * TOTAL_BLOCK_LENGTH + headerLength);
+
+                remaining -= blockSize;
+            }
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = dataChannel.read(dst, position);
+
+            if (read == -1) {
+                throw new IOException(String.format("unexpected end of data in store=%d", storeId));
+            }
+
+            position += read;
+        }
+    }
+
+    private BlockList getBlockList(int fileId) throws IOException {
+        BlockList list = blockLists.get(fileId);
+
+        if (list != null) {
+            return list;
+        }
+
+        return readSize(fileId) == -1 ? null : walk(fileId, null);
+    }
+
+    /**
+     * Reads the size of a file from its meta block.
+     *
+     * @return The size, or {@code -1} if the file does not exist.
+     */
+    private int readSize(int fileId) throws IOException {
+        if (fileId * META_BLOCK_LENGTH + META_BLOCK_LENGTH > metaChannel.size()) {
+            return -1;
+        }
+
+        buffer.position(0).limit(META_BLOCK_LENGTH);
+        metaChannel.read(buffer, fileId * META_BLOCK_LENGTH);
+        buffer.flip();
+
+        return ByteBufferUtils.readU24Int(buffer);
+    }
+
+    /**
+     * Follows the block chain of a file from the meta block just read by {@link #readSize(int)} and caches it. If
+     * {@code dst} is not {@code null} each block is read whole and its payload copied into {@code dst}, so that a file
+     * whose chain is not cached yet costs one read per block, otherwise only the headers are read.
+     *
+     * @return The block list, or {@code null} if the chain is broken.
+     */
+    private BlockList walk(int fileId, ByteBuffer dst) throws IOException {
+        buffer.position(0).limit(META_BLOCK_LENGTH);
+
+        int size = ByteBufferUtils.readU24Int(buffer);
+        int block = ByteBufferUtils.readU24Int(buffer);
+
+        if (block <= 0 || (long) block > dataChannel.size() / TOTAL_BLOCK_LENGTH) {
             return null;
         }
+
+        int blockLength = fileId <= 0xFFFF ? BLOCK_LENGTH : EXPANDED_BLOCK_LENGTH;
+        int headerLength = fileId <= 0xFFFF ? HEADER_LENGTH : EXPANDED_HEADER_LENGTH;
+
+        int[] blocks = new int[(size + blockLength - 1) / blockLength];
+        int remaining = size;
+
+        for (int chunk = 0; chunk < blocks.length; chunk++) {
+            if (block == 0) {
+                return null;
+            }
+
+            int blockSize = remaining > blockLength ? blockLength : remaining;
+
+            buffer.position(0).limit(dst == null ? headerLength : headerLength + blockSize);
+            readFully(buffer, (long) block * TOTAL_BLOCK_LENGTH);
+            buffer.flip();
+
+            int currentFile, currentChunk, nextBlock, currentIndex;
+
+            if (fileId <= 0xFFFF) {
+                currentFile = buffer.getShort() & 0xFFFF;
+                currentChunk = buffer.getShort() & 0xFFFF;
+                nextBlock = ByteBufferUtils.readU24Int(buffer);
+                currentIndex = buffer.get() & 0xFF;
+            } else {
+                currentFile = buffer.getInt();
+                currentChunk = buffer.getShort() & 0xFFFF;
+                nextBlock = ByteBufferUtils.readU24Int(buffer);
+                currentIndex = buffer.get() & 0xFF;
+            }
+
+            if (fileId != currentFile || chunk != currentChunk || (storeId + 1) != currentIndex) {
+                return null;
+            }
+            if (nextBlock < 0 || nextBlock > dataChannel.size() / TOTAL_BLOCK_LENGTH) {
+                return null;
+            }
+
+            if (dst != null) {
+                dst.put(buffer);
+            }
+
+            blocks[chunk] = block;
+            block = nextBlock;
+            remaining -= blockSize;
+        }
+
+        BlockList list = new BlockList(size, blocks);
+        blockLists.put(fileId, list);
+        return list;
     }
 
     public synchronized boolean writeFile(int id, byte[] data) {
+        final ResponseCache cache = responseCache;
+
+        if (cache != null) {
+            cache.invalidate(storeId, id);
+        }
+
+        blockLists.remove(id);
+
         return writeFile(id, data, true) || writeFile(id, data, false);
     }
 
@@ -292,23 +633,41 @@ public final class RSFileStore {
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        if (base != null) {
+            base.close();
+        }
     }
 
     public int getFileCount() {
+        final int baseCount = base == null ? 0 : base.getFileCount();
+
         if (!metaChannel.isOpen()) {
-            return 0;
+            return baseCount;
         }
 
         try {
-            return Math.toIntExact(metaChannel.size() / META_BLOCK_LENGTH);
+            return Math.max(baseCount, Math.toIntExact(metaChannel.size() / META_BLOCK_LENGTH));
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return 0;
+        return baseCount;
     }
 
     public int getStoreId() {
         return storeId;
     }
 
+    public RSFileStore getBase() {
+        return base;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
 }
@@ -0,0 +1,217 @@
+package io.nshusa.rsam;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of fully framed responses, keyed by (store, file). Each cache holds a single framing,
+ * given by its {@link Framer}.
+ *
+ * Entries are dropped automatically when the file is rewritten through {@link RSFileStore#writeFile(int, byte[])} on a
+ * store this cache is attached to.
+ */
+public final class ResponseCache {
+
+    /**
+     * Frames the raw contents of a file into the bytes that are sent to a client.
+     */
+    @FunctionalInterface
+    public interface Framer {
+
+        byte[] frame(int storeId, int fileId, ByteBuffer data);
+
+    }
+
+    /**
+     * Sends the file as is.
+     */
+    public static final Framer RAW = (storeId, fileId, data) -> {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    };
+
+    private static final int ON_DEMAND_CHUNK_LENGTH = 500;
+
+    /**
+     * Splits the file into the 500 byte chunks used by the on-demand protocol, each chunk being prefixed with the type
+     * (store id - 1), file id, total length and chunk index.
+     */
+    public static final Framer ON_DEMAND = (storeId, fileId, data) -> {
+        int length = data.remaining();
+        int chunks = Math.max(1, (length + ON_DEMAND_CHUNK_LENGTH - 1) / ON_DEMAND_CHUNK_LENGTH);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length + chunks * 6);
+
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int chunkLength = Math.min(ON_DEMAND_CHUNK_LENGTH, data.remaining());
+
+            buffer.put((byte) (storeId - 1));
+            buffer.putShort((short) fileId);
+            buffer.putShort((short) length);
+            buffer.put((byte) chunk);
+
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + chunkLength);
+            buffer.put(slice);
+            data.position(data.position() + chunkLength);
+        }
+
+        return buffer.array();
+    };
+
+    /**
+     * The number of generation counters, which are shared by every key that hashes to the same one.
+     */
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Map<Long, byte[]> entries = new LinkedHashMap<>(16, 0.75F, true);
+
+    // bumped by every invalidation of a key, so that a response framed from data read before it is not cached
+    private final int[] generations = new int[GENERATION_STRIPES];
+
+    private final long capacity;
+
+    private final Framer framer;
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    public ResponseCache(long capacity) {
+        this(capacity, RAW);
+    }
+
+    public ResponseCache(long capacity, Framer framer) {
+        this.capacity = capacity;
+        this.framer = framer;
+    }
+
+    private static long key(int storeId, int fileId) {
+        return ((long) storeId << 32) | (fileId & 0xFFFFFFFFL);
+    }
+
+    private static int stripe(long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (GENERATION_STRIPES - 1);
+    }
+
+    public synchronized ByteBuffer get(int storeId, int fileId) {
+        byte[] framed = entries.get(key(storeId, fileId));
+
+        if (framed == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return ByteBuffer.wrap(framed).asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the framed response for the specified file, reading and framing it with this cache's framer on a miss.
+     *
+     * The file is read without holding the cache lock, so the response is only cached if the file was not invalidated
+     * in the meantime.
+     *
+     * @return A read-only view of the framed response, or {@code null} if the file does not exist.
+     */
+    public ByteBuffer get(RSFileStore store, int fileId) {
+        final int storeId = store.getStoreId();
+        final int generation;
+
+        synchronized (this) {
+            ByteBuffer cached = get(storeId, fileId);
+
+            if (cached != null) {
+                return cached;
+            }
+
+            generation = generations[stripe(key(storeId, fileId))];
+        }
+
+        ByteBuffer data = store.readFile(fileId);
+
+        if (data == null) {
+            return null;
+        }
+
+        byte[] framed = framer.frame(storeId, fileId, data);
+
+        synchronized (this) {
+            if (generations[stripe(key(storeId, fileId))] == generation) {
+                put(storeId, fileId, framed);
+            }
+        }
+
+        return ByteBuffer.wrap(framed).asReadOnlyBuffer();
+    }
+
+    /**
+     * Caches a response that was framed with this cache's framer.
+     */
+    public synchronized void put(int storeId, int fileId, byte[] framed) {
+        if (framed.length > capacity) {
+            return;
+        }
+
+        byte[] previous = entries.put(key(storeId, fileId), framed);
+
+        if (previous != null) {
+            size -= previous.length;
+        }
+
+        size += framed.length;
+
+        Iterator<byte[]> it = entries.values().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().length;
+            it.remove();
+        }
+    }
+
+    public synchronized void invalidate(int storeId, int fileId) {
+        final long key = key(storeId, fileId);
+        generations[stripe(key)]++;
+
+        byte[] previous = entries.remove(key);
+
+        if (previous != null) {
+            size -= previous.length;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+
+        for (int i = 0; i < generations.length; i++) {
+            generations[i]++;
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public Framer getFramer() {
+        return framer;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+}
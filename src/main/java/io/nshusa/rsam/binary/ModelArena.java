@@ -0,0 +1,137 @@
+package io.nshusa.rsam.binary;
+
+import java.util.Arrays;
+
+/**
+ * Reusable storage for {@link RSModel#decode(byte[], ModelArena)}. The arrays only grow, so decoding many models into one
+ * arena allocates almost nothing once it has seen the largest of them.
+ *
+ * Only the first {@link #vertices}, {@link #faces} or {@link #texturedFaceCount} elements of an array belong to the
+ * last decoded model, and optional arrays are only valid when their flag is set.
+ */
+public final class ModelArena {
+
+    public int vertices;
+    public int faces;
+    public int texturedFaceCount;
+    public int maxDepth;
+
+    public int[] verticesX = new int[0];
+    public int[] verticesY = new int[0];
+    public int[] verticesZ = new int[0];
+
+    public short[] facesX = new short[0];
+    public short[] facesY = new short[0];
+    public short[] facesZ = new short[0];
+    public short[] colors = new short[0];
+
+    public short[] textureMapX = new short[0];
+    public short[] textureMapY = new short[0];
+    public short[] textureMapZ = new short[0];
+
+    public boolean hasVertexSkinTypes;
+    public byte[] vertexSkinTypes = new byte[0];
+
+    public boolean hasTriangleSkinTypes;
+    public byte[] triangleSkinTypes = new byte[0];
+
+    public boolean hasPriorities;
+    public byte[] priorities = new byte[0];
+
+    public boolean hasAlpha;
+    public byte[] alpha = new byte[0];
+
+    public boolean hasTextures;
+    public short[] textures = new short[0];
+
+    public boolean hasPointers;
+    public byte[] pointers = new byte[0];
+
+    public boolean hasFaceFillAttributes;
+    public byte[] faceFillAttributes = new byte[0];
+
+    private static int grow(int length, int needed) {
+        return Math.max(needed, length + (length >> 1));
+    }
+
+    void ensureVertices(int count, boolean skins) {
+        if (verticesX.length < count) {
+            final int capacity = grow(verticesX.length, count);
+            verticesX = new int[capacity];
+            verticesY = new int[capacity];
+            verticesZ = new int[capacity];
+        }
+
+        if (skins && vertexSkinTypes.length < count) {
+            vertexSkinTypes = new byte[grow(vertexSkinTypes.length, count)];
+        }
+    }
+
+    void ensureFaces(int count, boolean priorities, boolean triangleSkins, boolean textures, boolean alpha) {
+        if (facesX.length < count) {
+            final int capacity = grow(facesX.length, count);
+            facesX = new short[capacity];
+            facesY = new short[capacity];
+            facesZ = new short[capacity];
+            colors = new short[capacity];
+        }
+
+        if (priorities && this.priorities.length < count) {
+            this.priorities = new byte[grow(this.priorities.length, count)];
+        }
+
+        if (triangleSkins && triangleSkinTypes.length < count) {
+            triangleSkinTypes = new byte[grow(triangleSkinTypes.length, count)];
+        }
+
+        if (textures && this.textures.length < count) {
+            final int capacity = grow(this.textures.length, count);
+            this.textures = new short[capacity];
+            pointers = new byte[capacity];
+            faceFillAttributes = new byte[capacity];
+        }
+
+        if (alpha && this.alpha.length < count) {
+            this.alpha = new byte[grow(this.alpha.length, count)];
+        }
+    }
+
+    void ensureTexturedFaces(int count) {
+        if (textureMapX.length < count) {
+            final int capacity = grow(textureMapX.length, count);
+            textureMapX = new short[capacity];
+            textureMapY = new short[capacity];
+            textureMapZ = new short[capacity];
+        }
+    }
+
+    /**
+     * Copies the last decoded model out of this arena.
+     */
+    public RSModel toModel() {
+        final RSModel model = new RSModel();
+        model.vertices = vertices;
+        model.faces = faces;
+        model.texturedFaceCount = texturedFaceCount;
+        model.maxDepth = maxDepth;
+        model.verticesX = Arrays.copyOf(verticesX, vertices);
+        model.verticesY = Arrays.copyOf(verticesY, vertices);
+        model.verticesZ = Arrays.copyOf(verticesZ, vertices);
+        model.facesX = Arrays.copyOf(facesX, faces);
+        model.facesY = Arrays.copyOf(facesY, faces);
+        model.facesZ = Arrays.copyOf(facesZ, faces);
+        model.colors = Arrays.copyOf(colors, faces);
+        model.textureMapX = texturedFaceCount > 0 ? Arrays.copyOf(textureMapX, texturedFaceCount) : null;
+        model.textureMapY = texturedFaceCount > 0 ? Arrays.copyOf(textureMapY, texturedFaceCount) : null;
+        model.textureMapZ = texturedFaceCount > 0 ? Arrays.copyOf(textureMapZ, texturedFaceCount) : null;
+        model.vertexSkinTypes = hasVertexSkinTypes ? Arrays.copyOf(vertexSkinTypes, vertices) : null;
+        model.triangleSkinTypes = hasTriangleSkinTypes ? Arrays.copyOf(triangleSkinTypes, faces) : null;
+        model.priorities = hasPriorities ? Arrays.copyOf(priorities, faces) : null;
+        model.alpha = hasAlpha ? Arrays.copyOf(alpha, faces) : null;
+        model.textures = hasTextures ? Arrays.copyOf(textures, faces) : null;
+        model.pointers = hasPointers ? Arrays.copyOf(pointers, faces) : null;
+        model.faceFillAttributes = hasFaceFillAttributes ? Arrays.copyOf(faceFillAttributes, faces) : null;
+        return model;
+    }
+
+}
@@ -0,0 +1,119 @@
+package io.nshusa.rsam.binary;
+
+import io.nshusa.rsam.RSFileStore;
+import io.nshusa.rsam.util.CompressionUtils;
+import io.nshusa.rsam.util.ParallelUtils;
+import io.nshusa.rsam.util.RSBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The 18-byte footer at the end of a model, which holds its counts and tells which optional sections it has. Reading it
+ * is enough to filter models by complexity without decoding them, see {@link RSModel#peekHeader(byte[])}.
+ */
+public final class ModelHeader {
+
+    public static final int LENGTH = 18;
+
+    private final int vertices;
+    private final int faces;
+    private final int texturedFaceCount;
+    private final boolean textures;
+    private final int priority;
+    private final boolean alpha;
+    private final boolean triangleSkins;
+    private final boolean vertexSkins;
+
+    ModelHeader(RSBuffer buffer) {
+        vertices = buffer.getUShort();
+        faces = buffer.getUShort();
+        texturedFaceCount = buffer.getUByte();
+        textures = buffer.getUByte() == 1;
+
+        final int priority = buffer.getUByte();
+        this.priority = priority == 0xff ? -1 : priority;
+
+        alpha = buffer.getUByte() == 1;
+        triangleSkins = buffer.getUByte() == 1;
+        vertexSkins = buffer.getUByte() == 1;
+    }
+
+    /**
+     * Peeks the header of every model in the store.
+     *
+     * @see #index(RSFileStore, ForkJoinPool)
+     */
+    public static ModelHeader[] index(RSFileStore store) throws IOException {
+        return index(store, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Peeks the header of every model in the store, reading and inflating the files across the pool. Files still have to
+     * be inflated as a whole since the header is at the end, but no model is decoded.
+     *
+     * @return The headers, indexed by file id. The element is {@code null} where the file is missing or not a model.
+     */
+    public static ModelHeader[] index(RSFileStore store, ForkJoinPool pool) throws IOException {
+        final ModelHeader[] headers = new ModelHeader[store.getFileCount()];
+
+        ParallelUtils.forEach(pool, 0, headers.length, fileId -> {
+            final ByteBuffer compressed = store.readFile(fileId);
+
+            if (compressed == null || !compressed.hasRemaining()) {
+                return;
+            }
+
+            try {
+                headers[fileId] = RSModel.peekHeader(CompressionUtils.degzip(compressed));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+
+        return headers;
+    }
+
+    public int getVertices() {
+        return vertices;
+    }
+
+    public int getFaces() {
+        return faces;
+    }
+
+    public int getTexturedFaceCount() {
+        return texturedFaceCount;
+    }
+
+    public boolean hasTextures() {
+        return textures;
+    }
+
+    /**
+     * @return The priority shared by every face, or {@code -1} if each face has its own.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    public boolean hasTriangleSkins() {
+        return triangleSkins;
+    }
+
+    public boolean hasVertexSkins() {
+        return vertexSkins;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("vertices=%d faces=%d texturedFaces=%d textures=%b priority=%d alpha=%b triangleSkins=%b vertexSkins=%b",
+                vertices, faces, texturedFaceCount, textures, priority, alpha, triangleSkins, vertexSkins);
+    }
+
+}
@@ -0,0 +1,318 @@
+package io.nshusa.rsam.binary;
+
+import io.nshusa.rsam.RSFileStore;
+import io.nshusa.rsam.util.CompressionUtils;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams every model of a store through read, inflate, decode and a callback, each stage on its own threads with a
+ * bounded queue in between. At most {@link #setQueueCapacity(int) capacity} files wait between two stages, so memory
+ * stays bounded however large the store is.
+ *
+ * Files are read by a single thread as the store is synchronized. Files that cannot be inflated or decoded are passed
+ * to the {@link #setErrorHandler(ErrorHandler) error handler} and skipped, while an exception thrown by the callback or
+ * the error handler stops the whole run.
+ */
+public final class ModelPipeline {
+
+    @FunctionalInterface
+    public interface Callback {
+
+        /**
+         * Called for each decoded model, from as many threads as {@link #setCallbackThreads(int)} is set to.
+         */
+        void accept(int fileId, RSModel model);
+
+    }
+
+    @FunctionalInterface
+    public interface ErrorHandler {
+
+        /**
+         * Called for each file that could not be inflated or decoded, from the thread of the stage that failed.
+         */
+        void failed(int fileId, Exception cause);
+
+    }
+
+    /**
+     * Prints the stack trace of each failure.
+     */
+    public static final ErrorHandler PRINT_ERRORS = (fileId, cause) -> cause.printStackTrace();
+
+    @FunctionalInterface
+    private interface Work {
+
+        Object apply(Object payload) throws Exception;
+
+    }
+
+    private static final class Item {
+
+        private final int fileId;
+
+        // the compressed buffer, then the inflated data, then the model
+        private Object payload;
+
+        private Item(int fileId, Object payload) {
+            this.fileId = fileId;
+            this.payload = payload;
+        }
+
+    }
+
+    /**
+     * Sent once to each worker of a stage when every worker of the stage before it has finished.
+     */
+    private static final Item END = new Item(-1, null);
+
+    /**
+     * How long a worker blocks on a queue before checking whether the run has failed.
+     */
+    private static final long POLL_MILLIS = 10;
+
+    private final RSFileStore store;
+
+    private int inflaterThreads = Runtime.getRuntime().availableProcessors();
+    private int decoderThreads = Runtime.getRuntime().availableProcessors();
+    private int callbackThreads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 64;
+    private ErrorHandler errorHandler = PRINT_ERRORS;
+
+    public ModelPipeline(RSFileStore store) {
+        this.store = store;
+    }
+
+    public ModelPipeline setInflaterThreads(int threads) {
+        inflaterThreads = checkThreads(threads);
+        return this;
+    }
+
+    public ModelPipeline setDecoderThreads(int threads) {
+        decoderThreads = checkThreads(threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads calling the callback. Use {@code 1} if the callback is not thread-safe.
+     */
+    public ModelPipeline setCallbackThreads(int threads) {
+        callbackThreads = checkThreads(threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of files that may wait between two stages.
+     */
+    public ModelPipeline setQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(String.format("capacity=%d must be positive", capacity));
+        }
+        queueCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets what is done with files that could not be inflated or decoded, which defaults to {@link #PRINT_ERRORS}.
+     */
+    public ModelPipeline setErrorHandler(ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    private static int checkThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(String.format("threads=%d must be positive", threads));
+        }
+        return threads;
+    }
+
+    /**
+     * Decodes every model in the store and passes it to the callback, blocking until all of them have been handled.
+     *
+     * @return The number of models passed to the callback.
+     */
+    public long run(Callback callback) throws InterruptedIOException {
+        final BlockingQueue<Item> compressed = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<Item> inflated = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(queueCapacity);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong handled = new AtomicLong();
+
+        final ExecutorService[] pools = {
+                Executors.newSingleThreadExecutor(factory("model-reader")),
+                Executors.newFixedThreadPool(inflaterThreads, factory("model-inflater")),
+                Executors.newFixedThreadPool(decoderThreads, factory("model-decoder")),
+                Executors.newFixedThreadPool(callbackThreads, factory("model-callback"))
+        };
+
+        pools[0].execute(() -> {
+            try {
+                final int count = store.getFileCount();
+
+                for (int fileId = 0; fileId < count; fileId++) {
+                    final ByteBuffer buffer = store.readFile(fileId);
+
+                    if (buffer == null || !buffer.hasRemaining()) {
+                        continue;
+                    }
+
+                    if (!put(compressed, new Item(fileId, buffer), failure)) {
+                        return;
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                end(compressed, inflaterThreads, failure);
+            }
+        });
+
+        final ErrorHandler errorHandler = this.errorHandler;
+
+        transform(pools[1], inflaterThreads, compressed, inflated, decoderThreads, failure, errorHandler,
+                payload -> CompressionUtils.degzip((ByteBuffer) payload));
+
+        transform(pools[2], decoderThreads, inflated, decoded, callbackThreads, failure, errorHandler,
+                payload -> new RSModel((byte[]) payload));
+
+        for (int i = 0; i < callbackThreads; i++) {
+            pools[3].execute(() -> {
+                try {
+                    Item item;
+                    while ((item = take(decoded, failure)) != null) {
+                        callback.accept(item.fileId, (RSModel) item.payload);
+                        handled.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+        }
+
+        boolean interrupted = false;
+
+        for (ExecutorService pool : pools) {
+            pool.shutdown();
+
+            while (true) {
+                try {
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                    break;
+                } catch (InterruptedException ex) {
+                    // stop the workers, then keep waiting for them so none outlive the run
+                    interrupted = true;
+                    failure.compareAndSet(null, ex);
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decoding models");
+        }
+
+        if (failure.get() != null) {
+            throw new IllegalStateException(failure.get());
+        }
+
+        return handled.get();
+    }
+
+    /**
+     * Starts the workers of a stage that maps each payload and passes it on. The last worker to finish ends the next
+     * stage.
+     */
+    private static void transform(ExecutorService pool, int threads, BlockingQueue<Item> in, BlockingQueue<Item> out,
+                                  int nextThreads, AtomicReference<Throwable> failure, ErrorHandler errorHandler,
+                                  Work work) {
+        final AtomicInteger running = new AtomicInteger(threads);
+
+        for (int i = 0; i < threads; i++) {
+            pool.execute(() -> {
+                try {
+                    Item item;
+                    while ((item = take(in, failure)) != null) {
+                        try {
+                            item.payload = work.apply(item.payload);
+                        } catch (Exception ex) {
+                            errorHandler.failed(item.fileId, ex);
+                            continue;
+                        }
+
+                        if (!put(out, item, failure)) {
+                            return;
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        end(out, nextThreads, failure);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return The next item, or {@code null} once the stage has ended or the run has failed.
+     */
+    private static Item take(BlockingQueue<Item> queue, AtomicReference<Throwable> failure) throws InterruptedException {
+        while (failure.get() == null) {
+            final Item item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (item != null) {
+                return item == END ? null : item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code true} if the item was queued, {@code false} if the run failed first.
+     */
+    private static boolean put(BlockingQueue<Item> queue, Item item, AtomicReference<Throwable> failure) throws InterruptedException {
+        while (failure.get() == null) {
+            if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void end(BlockingQueue<Item> queue, int threads, AtomicReference<Throwable> failure) {
+        try {
+            for (int i = 0; i < threads; i++) {
+                if (!put(queue, END, failure)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            failure.compareAndSet(null, ex);
+        }
+    }
+
+    private static ThreadFactory factory(String name) {
+        final AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
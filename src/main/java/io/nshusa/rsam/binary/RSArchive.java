@@ -3,16 +3,32 @@ package io.nshusa.rsam.binary;
 import io.nshusa.rsam.util.ByteBufferUtils;
 import io.nshusa.rsam.util.CompressionUtils;
 import io.nshusa.rsam.util.HashUtils;
+import io.nshusa.rsam.util.IntIndexMap;
+import io.nshusa.rsam.util.ParallelUtils;
+import io.nshusa.rsam.util.RSBuffer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
+/**
+ * An archive of named entries. Archives are thread-safe: every method holds the archive's lock, except that
+ * {@link #readFile(int)} decompresses outside of it and {@link Editor#apply()} compresses outside of it.
+ */
 public final class RSArchive {
 
     public static final int TITLE_ARCHIVE = 1;
@@ -24,6 +40,8 @@ public final class RSArchive {
     public static final int WORDENC_ARCHIVE = 7;
     public static final int SOUND_ARCHIVE = 8;
 
+    public static final long DEFAULT_DECOMPRESSED_CACHE_SIZE = 4 * 1024 * 1024;
+
     public static final class ArchiveEntry {
 
         private final int hash;
@@ -56,63 +74,318 @@ public final class RSArchive {
 
     }
 
+    /**
+     * Visits the entries of an encoded archive.
+     */
+    @FunctionalInterface
+    public interface EntryVisitor {
+
+        /**
+         * @param payload A read-only view of the entry as it is stored, which is still compressed if the archive
+         *                compresses each entry on its own.
+         */
+        void visit(int hash, int uncompressedSize, int compressedSize, ByteBuffer payload) throws IOException;
+
+    }
+
+    /**
+     * A batch of changes to an archive. New entries are compressed in parallel when the batch is applied, after which
+     * all of the changes are made to the entry table in one step, in the order they were added.
+     */
+    public final class Editor {
+
+        private final List<Integer> hashes = new ArrayList<>();
+
+        // null marks a removal
+        private final List<byte[]> data = new ArrayList<>();
+
+        private Editor() {
+
+        }
+
+        public Editor put(String name, byte[] data) {
+            return put(HashUtils.nameToHash(name), data);
+        }
+
+        public Editor put(int hash, byte[] data) {
+            this.hashes.add(hash);
+            this.data.add(data);
+            return this;
+        }
+
+        public Editor remove(String name) {
+            return remove(HashUtils.nameToHash(name));
+        }
+
+        public Editor remove(int hash) {
+            this.hashes.add(hash);
+            this.data.add(null);
+            return this;
+        }
+
+        public void apply() throws IOException {
+            apply(ForkJoinPool.commonPool());
+        }
+
+        public void apply(ForkJoinPool pool) throws IOException {
+            final boolean mode = isExtracted();
+            byte[][] compressed = mode ? null : CompressionUtils.bzip2(data.toArray(new byte[0][]), pool);
+
+            synchronized (RSArchive.this) {
+                // the archive switched modes while the entries were being compressed
+                if (extracted != mode) {
+                    compressed = extracted ? null : CompressionUtils.bzip2(data.toArray(new byte[0][]), pool);
+                }
+
+                for (int i = 0; i < hashes.size(); i++) {
+                    final int hash = hashes.get(i);
+                    final byte[] entry = data.get(i);
+
+                    if (entry == null) {
+                        RSArchive.this.remove(hash);
+                        continue;
+                    }
+
+                    invalidate(hash);
+
+                    if (!extracted) {
+                        RSArchive.this.put(hash, entry.length, compressed[i].length, compressed[i]);
+                    } else {
+                        RSArchive.this.put(hash, entry.length, entry.length, entry);
+                    }
+                }
+            }
+        }
+
+    }
+
     private boolean extracted;
 
-    private final Map<Integer, ArchiveEntry> entries = new LinkedHashMap<>();
+    // entries are kept in parallel arrays in archive order, with a hash -> position table for lookups
+    private int count;
+    private int[] hashes;
+    private int[] uncompressedSizes;
+    private int[] compressedSizes;
+    private byte[][] data;
+
+    // lazily decoded archives leave data[i] null and read entry i from the backing buffer at offsets[i] instead, the
+    // backing buffer is never written but is kept writable so that its array can be handed to decoders
+    private ByteBuffer backing;
+    private int[] offsets;
+
+    private final IntIndexMap positions;
+
+    // the last encoding of this archive and its crc, null whenever an entry has changed since
+    private byte[] encoded;
+    private int encodedChecksum;
+
+    // decompressed entries of archives that compress each entry on its own, most recently read last
+    private final Map<Integer, byte[]> decompressedEntries = new LinkedHashMap<>(16, 0.75F, true);
+    private long decompressedCacheSize = DEFAULT_DECOMPRESSED_CACHE_SIZE;
+    private long decompressedSize;
+
+    // bumped whenever a decompressed entry is invalidated, so that an entry decompressed before then is not cached
+    private int version;
+
+    private RSArchive(int capacity) {
+        hashes = new int[capacity];
+        uncompressedSizes = new int[capacity];
+        compressedSizes = new int[capacity];
+        data = new byte[capacity][];
+        offsets = new int[capacity];
+        positions = new IntIndexMap(capacity);
+    }
 
     public RSArchive(ArchiveEntry[] entries) {
-        Arrays.asList(entries).forEach(it -> this.entries.put(it.getHash(), it));
+        this(entries.length);
+        Arrays.asList(entries).forEach(it -> put(it.getHash(), it.getUncompressedSize(), it.getCompresseedSize(), it.getData()));
+    }
+
+    private void put(int hash, int uncompressedSize, int compressedSize, byte[] entryData) {
+        int index = positions.get(hash);
+
+        if (index == -1) {
+            if (count == hashes.length) {
+                int capacity = Math.max(8, count * 2);
+                hashes = Arrays.copyOf(hashes, capacity);
+                uncompressedSizes = Arrays.copyOf(uncompressedSizes, capacity);
+                compressedSizes = Arrays.copyOf(compressedSizes, capacity);
+                data = Arrays.copyOf(data, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+            }
+
+            index = count++;
+            positions.put(hash, index);
+        }
+
+        set(index, hash, uncompressedSize, compressedSize, entryData);
+    }
+
+    private void set(int index, int hash, int uncompressedSize, int compressedSize, byte[] entryData) {
+        hashes[index] = hash;
+        uncompressedSizes[index] = uncompressedSize;
+        compressedSizes[index] = compressedSize;
+        data[index] = entryData;
+        encoded = null;
+    }
+
+    private ArchiveEntry entryAt(int index) {
+        return new ArchiveEntry(hashes[index], uncompressedSizes[index], compressedSizes[index], bytes(index));
+    }
+
+    private ByteBuffer payload(int index) {
+        if (data[index] != null) {
+            return ByteBuffer.wrap(data[index]);
+        }
+
+        final ByteBuffer slice = backing.duplicate();
+        slice.position(offsets[index]).limit(offsets[index] + compressedSizes[index]);
+        return slice.slice();
+    }
+
+    private byte[] bytes(int index) {
+        if (data[index] != null) {
+            return data[index];
+        }
+
+        final byte[] copy = new byte[compressedSizes[index]];
+        payload(index).get(copy);
+        return copy;
     }
 
     public static RSArchive decode(ByteBuffer buffer) throws IOException {
+        return decode(buffer, false);
+    }
+
+    /**
+     * Decodes an archive.
+     *
+     * @param lazy {@code true} to keep the entries as read-only slices of the (decompressed) buffer instead of copying
+     *             each of them, entries are only copied when they are modified.
+     */
+    public static RSArchive decode(ByteBuffer buffer, boolean lazy) throws IOException {
         final int uncompressedLength = ByteBufferUtils.readU24Int(buffer);
         final int compressedLength = ByteBufferUtils.readU24Int(buffer);
 
         boolean extracted = false;
 
         if (uncompressedLength != compressedLength) {
-            final byte[] compressed = new byte[compressedLength];
             final byte[] decompressed = new byte[uncompressedLength];
-            buffer.get(compressed);
+            final ByteBuffer compressed = buffer.slice();
+            compressed.limit(compressedLength);
             CompressionUtils.debzip2(compressed, decompressed);
+            buffer.position(buffer.position() + compressedLength);
             buffer = ByteBuffer.wrap(decompressed);
             extracted = true;
         }
 
         final int entries = buffer.getShort() & 0xFFFF;
 
-        final int[] hashes = new int[entries];
-        final int[] uncompressedSizes = new int[entries];
-        final int[] compressedSizes = new int[entries];
+        final RSArchive archive = new RSArchive(entries);
+        archive.extracted = extracted;
 
-        final ArchiveEntry[] archiveEntries = new ArchiveEntry[entries];
+        if (lazy) {
+            archive.backing = buffer.duplicate();
+        }
 
-        final ByteBuffer entryBuf = ByteBuffer.wrap(buffer.array());
+        final ByteBuffer entryBuf = buffer.duplicate();
         entryBuf.position(buffer.position() + entries * 10);
 
         for (int i = 0; i < entries; i++) {
 
-            hashes[i] = buffer.getInt();
-            uncompressedSizes[i] = ByteBufferUtils.readU24Int(buffer);
-            compressedSizes[i] = ByteBufferUtils.readU24Int(buffer);
+            final int hash = buffer.getInt();
+            final int uncompressedSize = ByteBufferUtils.readU24Int(buffer);
+            final int compressedSize = ByteBufferUtils.readU24Int(buffer);
 
-            final byte[] entryData = new byte[compressedSizes[i]];
-            entryBuf.get(entryData);
+            if (lazy) {
+                archive.put(hash, uncompressedSize, compressedSize, null);
+                archive.offsets[archive.indexOf(hash)] = entryBuf.position();
+                entryBuf.position(entryBuf.position() + compressedSize);
+            } else {
+                final byte[] entryData = new byte[compressedSize];
+                entryBuf.get(entryData);
 
-            archiveEntries[i] = new ArchiveEntry(hashes[i], uncompressedSizes[i], compressedSizes[i], entryData);
+                archive.put(hash, uncompressedSize, compressedSize, entryData);
+            }
         }
 
-        final RSArchive archive = new RSArchive(archiveEntries);
-        archive.extracted = extracted;
-
         return archive;
     }
 
+    /**
+     * Encodes this archive, reusing the previous encoding if nothing has changed since.
+     */
     public synchronized byte[] encode() throws IOException {
-        int size = 2 + entries.size() * 10;
+        return encoded().clone();
+    }
+
+    /**
+     * Walks the entry table of an encoded archive without decoding it into an {@link RSArchive}, only an archive that is
+     * compressed as a whole is decompressed first.
+     */
+    public static void forEachEntry(ByteBuffer buffer, EntryVisitor visitor) throws IOException {
+        buffer = buffer.duplicate();
+
+        final int uncompressedLength = ByteBufferUtils.readU24Int(buffer);
+        final int compressedLength = ByteBufferUtils.readU24Int(buffer);
 
-        for (ArchiveEntry file : entries.values()) {
-            size += file.getCompresseedSize();
+        if (uncompressedLength != compressedLength) {
+            final byte[] decompressed = new byte[uncompressedLength];
+            final ByteBuffer compressed = buffer.slice();
+            compressed.limit(compressedLength);
+            CompressionUtils.debzip2(compressed, decompressed);
+            buffer.position(buffer.position() + compressedLength);
+            buffer = ByteBuffer.wrap(decompressed);
+        }
+
+        final int entries = buffer.getShort() & 0xFFFF;
+
+        final ByteBuffer entryBuf = buffer.asReadOnlyBuffer();
+        int offset = buffer.position() + entries * 10;
+
+        for (int i = 0; i < entries; i++) {
+            final int hash = buffer.getInt();
+            final int uncompressedSize = ByteBufferUtils.readU24Int(buffer);
+            final int compressedSize = ByteBufferUtils.readU24Int(buffer);
+
+            entryBuf.limit(offset + compressedSize).position(offset);
+            visitor.visit(hash, uncompressedSize, compressedSize, entryBuf.slice());
+
+            offset += compressedSize;
+        }
+    }
+
+    /**
+     * Gets the crc of the encoded archive, only encoding it if something has changed since it was last encoded.
+     */
+    public synchronized int getChecksum() throws IOException {
+        encoded();
+        return encodedChecksum;
+    }
+
+    public synchronized boolean isDirty() {
+        return encoded == null;
+    }
+
+    private byte[] encoded() throws IOException {
+        if (encoded == null) {
+            final byte[] data = encodeArchive();
+
+            final Checksum checksum = new CRC32();
+            checksum.update(data, 0, data.length);
+
+            encodedChecksum = (int) checksum.getValue();
+            encoded = data;
+        }
+
+        return encoded;
+    }
+
+    private byte[] encodeArchive() throws IOException {
+        int size = 2 + count * 10;
+
+        for (int i = 0; i < count; i++) {
+            size += compressedSizes[i];
         }
 
         ByteBuffer buffer;
@@ -124,16 +397,16 @@ public final class RSArchive {
             buffer = ByteBuffer.allocate(size);
         }
 
-        buffer.putShort((short) entries.size());
+        buffer.putShort((short) count);
 
-        for (ArchiveEntry entry : entries.values()) {
-            buffer.putInt(entry.getHash());
-            ByteBufferUtils.write24Int(buffer, entry.getUncompressedSize());
-            ByteBufferUtils.write24Int(buffer, entry.getCompresseedSize());
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(hashes[i]);
+            ByteBufferUtils.write24Int(buffer, uncompressedSizes[i]);
+            ByteBufferUtils.write24Int(buffer, compressedSizes[i]);
         }
 
-        for (ArchiveEntry file : entries.values()) {
-            buffer.put(file.getData());
+        for (int i = 0; i < count; i++) {
+            buffer.put(payload(i));
         }
 
         byte[] data;
@@ -156,34 +429,183 @@ public final class RSArchive {
 
     }
 
-    public static ByteBuffer encodeChecksum(RSArchive[] archives) throws IOException {
-        // Integer.BYTES represents the crc stores as an integer which has 4 bytes, + Intger.BYTES because a pre calculated value is after the crcs which is in the form of a int as well
-        ByteBuffer buffer = ByteBuffer.allocate((archives.length * Integer.BYTES) + Integer.BYTES);
+    /**
+     * A byte array stream whose contents can be written out without copying them.
+     */
+    private static final class EncodingOutputStream extends ByteArrayOutputStream {
+
+        private ByteBuffer buffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+    }
+
+    /**
+     * Encodes this archive straight into the specified channel. Archives that are compressed as a whole are streamed
+     * through the compressor, when the channel is seekable the header is filled in afterwards, otherwise only the
+     * compressed data is buffered.
+     *
+     * If encoding fails part way into a seekable channel, the channel is moved back to where it was but the bytes already
+     * written after that position are left as they are, so they should be treated as garbage.
+     *
+     * @return The number of bytes written.
+     */
+    public synchronized long encodeTo(WritableByteChannel out) throws IOException {
+        if (encoded != null) {
+            return writeFully(out, ByteBuffer.wrap(encoded));
+        }
+
+        int size = 2 + count * 10;
+
+        for (int i = 0; i < count; i++) {
+            size += compressedSizes[i];
+        }
+
+        final ByteBuffer table = ByteBuffer.allocate(6 + 2 + count * 10);
+
+        if (!extracted) {
+            ByteBufferUtils.write24Int(table, size);
+            ByteBufferUtils.write24Int(table, size);
+        }
+
+        table.putShort((short) count);
+
+        for (int i = 0; i < count; i++) {
+            table.putInt(hashes[i]);
+            ByteBufferUtils.write24Int(table, uncompressedSizes[i]);
+            ByteBufferUtils.write24Int(table, compressedSizes[i]);
+        }
+
+        table.flip();
+
+        if (!extracted) {
+            long written = writeFully(out, table);
+
+            for (int i = 0; i < count; i++) {
+                written += writeFully(out, payload(i));
+            }
+
+            return written;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(6);
+
+        if (out instanceof SeekableByteChannel) {
+            final SeekableByteChannel channel = (SeekableByteChannel) out;
+            final long start = channel.position();
+
+            try {
+                channel.position(start + header.capacity());
+
+                compress(Channels.newOutputStream(channel), table);
+
+                final long end = channel.position();
+                final long compressedSize = end - start - header.capacity();
 
-        Checksum checksum = new CRC32();
+                if (compressedSize == size) {
+                    throw new RuntimeException("error zipped size matches original");
+                }
 
+                ByteBufferUtils.write24Int(header, size);
+                ByteBufferUtils.write24Int(header, (int) compressedSize);
+                header.flip();
+
+                channel.position(start);
+                writeFully(channel, header);
+                channel.position(end);
+                return end - start;
+            } catch (IOException | RuntimeException ex) {
+                try {
+                    channel.position(start);
+                } catch (IOException suppressed) {
+                    ex.addSuppressed(suppressed);
+                }
+                throw ex;
+            }
+        }
+
+        final EncodingOutputStream bout = new EncodingOutputStream();
+        compress(bout, table);
+
+        if (bout.size() == size) {
+            throw new RuntimeException("error zipped size matches original");
+        }
+
+        ByteBufferUtils.write24Int(header, size);
+        ByteBufferUtils.write24Int(header, bout.size());
+        header.flip();
+
+        return writeFully(out, header) + writeFully(out, bout.buffer());
+    }
+
+    private void compress(OutputStream out, ByteBuffer table) throws IOException {
+        final byte[] chunk = new byte[8192];
+
+        try (OutputStream os = CompressionUtils.bzip2(out)) {
+            os.write(table.array(), table.position(), table.remaining());
+
+            for (int i = 0; i < count; i++) {
+                final ByteBuffer payload = payload(i);
+
+                while (payload.hasRemaining()) {
+                    int length = Math.min(chunk.length, payload.remaining());
+                    payload.get(chunk, 0, length);
+                    os.write(chunk, 0, length);
+                }
+            }
+        }
+
+        out.flush();
+    }
+
+    private static long writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        long written = 0;
+
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer);
+        }
+
+        return written;
+    }
+
+    public static ByteBuffer encodeChecksum(RSArchive[] archives) throws IOException {
         int[] crcs = new int[archives.length];
 
         for (int i = 1; i < crcs.length; i++) {
             RSArchive archive = archives[i];
 
-            checksum.reset();
+            int crc = archive.getChecksum();
 
-            byte[] encoded = archive.encode();
+            crcs[i] = crc;
+        }
 
-            checksum.update(encoded, 0, encoded.length);
+        return encodeChecksum(crcs);
+    }
 
-            int crc = (int) checksum.getValue();
+    /**
+     * Encodes the crc table like {@link #encodeChecksum(RSArchive[])}, encoding and checksumming the archives in
+     * parallel on the specified pool.
+     */
+    public static ByteBuffer encodeChecksum(RSArchive[] archives, ForkJoinPool pool) throws IOException {
+        int[] crcs = new int[archives.length];
 
-            crcs[i] = crc;
+        ParallelUtils.forEach(pool, 1, crcs.length, i -> crcs[i] = archives[i].getChecksum());
 
-            buffer.putInt(crc);
+        return encodeChecksum(crcs);
+    }
+
+    private static ByteBuffer encodeChecksum(int[] crcs) {
+        // Integer.BYTES represents the crc stores as an integer which has 4 bytes, + Intger.BYTES because a pre calculated value is after the crcs which is in the form of a int as well
+        ByteBuffer buffer = ByteBuffer.allocate((crcs.length * Integer.BYTES) + Integer.BYTES);
+
+        for (int i = 1; i < crcs.length; i++) {
+            buffer.putInt(crcs[i]);
         }
 
         // predefined value
         int calculated = 1234;
 
-        for (int index = 0; index < archives.length; index++) {
+        for (int index = 0; index < crcs.length; index++) {
             calculated = (calculated << 1) + crcs[index];
         }
 
@@ -196,43 +618,131 @@ public final class RSArchive {
         return readFile(HashUtils.nameToHash(name));
     }
 
+    /**
+     * @return A read-only view of the decompressed entry.
+     */
     public ByteBuffer readFile(int hash) throws IOException {
-        for (ArchiveEntry entry : entries.values()) {
+        return read(hash).asReadOnlyBuffer();
+    }
+
+    public RSBuffer readBuffer(String name) throws IOException {
+        return readBuffer(HashUtils.nameToHash(name));
+    }
+
+    /**
+     * Reads an entry for decoding without copying it, the buffer shares its array with this archive so it must not be
+     * written to through {@link RSBuffer#array()}.
+     */
+    public RSBuffer readBuffer(int hash) throws IOException {
+        return RSBuffer.wrap(read(hash));
+    }
+
+    private ByteBuffer read(int hash) throws IOException {
+        final ByteBuffer payload;
+        final byte[] decompressed;
+        final int version;
 
-            if (entry.getHash() != hash) {
-                continue;
+        synchronized (this) {
+            final int index = positions.get(hash);
+
+            if (index == -1) {
+                throw new FileNotFoundException(String.format("file=%d could not be found.", hash));
             }
 
-            if (!extracted) {
-                byte[] decompressed = new byte[entry.getUncompressedSize()];
-                CompressionUtils.debzip2(entry.getData(), decompressed);
-                return ByteBuffer.wrap(decompressed);
-            } else {
-                return ByteBuffer.wrap(entry.getData());
+            if (extracted) {
+                return payload(index);
+            }
+
+            final byte[] cached = decompressedEntries.get(hash);
+
+            if (cached != null) {
+                return ByteBuffer.wrap(cached);
+            }
+
+            payload = payload(index);
+            decompressed = new byte[uncompressedSizes[index]];
+            version = this.version;
+        }
+
+        CompressionUtils.debzip2(payload, decompressed);
+
+        synchronized (this) {
+            if (this.version == version) {
+                cacheDecompressed(hash, decompressed);
             }
+        }
+
+        return ByteBuffer.wrap(decompressed);
+    }
 
+    private void cacheDecompressed(int hash, byte[] entry) {
+        if (entry.length > decompressedCacheSize) {
+            return;
         }
-        throw new FileNotFoundException(String.format("file=%d could not be found.", hash));
+
+        byte[] previous = decompressedEntries.put(hash, entry);
+
+        if (previous != null) {
+            decompressedSize -= previous.length;
+        }
+
+        decompressedSize += entry.length;
+        trimDecompressed();
+    }
+
+    private void trimDecompressed() {
+        Iterator<byte[]> it = decompressedEntries.values().iterator();
+        while (decompressedSize > decompressedCacheSize && it.hasNext()) {
+            decompressedSize -= it.next().length;
+            it.remove();
+        }
+    }
+
+    private void invalidate(int hash) {
+        version++;
+
+        byte[] previous = decompressedEntries.remove(hash);
+
+        if (previous != null) {
+            decompressedSize -= previous.length;
+        }
+    }
+
+    /**
+     * Sets how many bytes of decompressed entries this archive keeps around for archives that compress each entry on
+     * its own, {@code 0} disables the cache.
+     */
+    public synchronized void setDecompressedCacheSize(long bytes) {
+        decompressedCacheSize = bytes;
+        trimDecompressed();
+    }
+
+    public synchronized long getDecompressedCacheSize() {
+        return decompressedCacheSize;
     }
 
     public boolean replaceFile(int oldHash, String newName, byte[] data) throws IOException {
         return replaceFile(oldHash, HashUtils.nameToHash(newName), data);
     }
 
-    public boolean replaceFile(int oldHash, int newHash, byte[] data) throws IOException {
-        if (entries.containsKey(oldHash)) {
+    public synchronized boolean replaceFile(int oldHash, int newHash, byte[] data) throws IOException {
+        final int index = positions.get(oldHash);
+
+        if (index == -1 || (newHash != oldHash && positions.get(newHash) != -1)) {
             return false;
         }
 
-        ArchiveEntry entry;
+        invalidate(oldHash);
+
         if (!extracted) {
             byte[] compressed = CompressionUtils.bzip2(data);
-            entry = new RSArchive.ArchiveEntry(newHash, data.length, compressed.length, compressed);
+            set(index, newHash, data.length, compressed.length, compressed);
         } else {
-            entry = new RSArchive.ArchiveEntry(newHash, data.length, data.length, data);
+            set(index, newHash, data.length, data.length, data);
         }
 
-        entries.replace(oldHash, entry);
+        positions.remove(oldHash);
+        positions.put(newHash, index);
         return true;
     }
 
@@ -240,20 +750,16 @@ public final class RSArchive {
         return writeFile(HashUtils.nameToHash(name), data);
     }
 
-    public boolean writeFile(int hash, byte[] data) throws IOException {
-        if (entries.containsKey(hash)) {
-            replaceFile(hash, hash, data);
-        }
+    public synchronized boolean writeFile(int hash, byte[] data) throws IOException {
+        invalidate(hash);
 
-        ArchiveEntry entry;
         if (!extracted) {
             byte[] compressed = CompressionUtils.bzip2(data);
-            entry = new RSArchive.ArchiveEntry(hash, data.length, compressed.length, compressed);
+            put(hash, data.length, compressed.length, compressed);
         } else {
-            entry = new RSArchive.ArchiveEntry(hash, data.length, data.length, data);
+            put(hash, data.length, data.length, data);
         }
 
-        entries.put(hash, entry);
         return true;
     }
 
@@ -261,18 +767,19 @@ public final class RSArchive {
         return rename(oldHash, HashUtils.nameToHash(newName));
     }
 
-    public boolean rename(int oldHash, int newHash) {
-        if (!entries.containsKey(oldHash)) {
-            return false;
-        }
-
-        ArchiveEntry old = entries.get(oldHash);
+    public synchronized boolean rename(int oldHash, int newHash) {
+        final int index = positions.get(oldHash);
 
-        if (old == null) {
+        if (index == -1 || (newHash != oldHash && positions.get(newHash) != -1)) {
             return false;
         }
 
-        entries.replace(oldHash, new ArchiveEntry(newHash, old.getUncompressedSize(), old.getCompresseedSize(), old.getData()));
+        invalidate(oldHash);
+
+        hashes[index] = newHash;
+        encoded = null;
+        positions.remove(oldHash);
+        positions.put(newHash, index);
         return true;
     }
 
@@ -280,76 +787,143 @@ public final class RSArchive {
         return getEntry(HashUtils.nameToHash(name));
     }
 
-    public ArchiveEntry getEntry(int hash) throws FileNotFoundException {
-        if (entries.containsKey(hash)) {
-            return entries.get(hash);
+    public synchronized ArchiveEntry getEntry(int hash) throws FileNotFoundException {
+        final int index = positions.get(hash);
+
+        if (index != -1) {
+            return entryAt(index);
         }
 
         throw new FileNotFoundException(String.format("Could not find entry: %d.", hash));
     }
 
-    public ArchiveEntry getEntryAt(int index) throws IOException {
-        if (index >= entries.size()) {
+    public synchronized ArchiveEntry getEntryAt(int index) throws IOException {
+        if (index < 0 || index >= count) {
             throw new FileNotFoundException(String.format("File at index=%d could not be found.", index));
         }
 
-        int pos = 0;
-        for (ArchiveEntry entry : entries.values()) {
-            if (pos == index) {
-                return entry;
-            }
-            pos++;
-        }
-
-        throw new FileNotFoundException(String.format("File at index=%d could not be found.", index));
+        return entryAt(index);
     }
 
     public int indexOf(String name) {
         return indexOf(HashUtils.nameToHash(name));
     }
 
-    public int indexOf(int hash) {
-        int index = 0;
-        for (ArchiveEntry entry : entries.values()) {
-            if (entry.getHash() == hash) {
-                return index;
-            }
-            index++;
-        }
-
-        return -1;
+    public synchronized int indexOf(int hash) {
+        return positions.get(hash);
     }
 
     public boolean contains(String name) {
         return contains(HashUtils.nameToHash(name));
     }
 
-    public boolean contains(int hash) {
-        return entries.containsKey(hash);
+    public synchronized boolean contains(int hash) {
+        return positions.get(hash) != -1;
     }
 
     public boolean remove(String name) {
         return remove(HashUtils.nameToHash(name));
     }
 
-    public boolean remove(int hash) {
-        if (entries.containsKey(hash)) {
-            entries.remove(hash);
-            return true;
+    public synchronized boolean remove(int hash) {
+        final int index = positions.remove(hash);
+
+        if (index == -1) {
+            return false;
+        }
+
+        invalidate(hash);
+
+        final int moved = count - index - 1;
+        System.arraycopy(hashes, index + 1, hashes, index, moved);
+        System.arraycopy(uncompressedSizes, index + 1, uncompressedSizes, index, moved);
+        System.arraycopy(compressedSizes, index + 1, compressedSizes, index, moved);
+        System.arraycopy(data, index + 1, data, index, moved);
+        System.arraycopy(offsets, index + 1, offsets, index, moved);
+        data[--count] = null;
+        encoded = null;
+
+        for (int i = index; i < count; i++) {
+            positions.put(hashes[i], i);
+        }
+        return true;
+    }
+
+    public synchronized int getEntryCount() {
+        return count;
+    }
+
+    /**
+     * @return The hashes of every entry, in entry order.
+     */
+    public synchronized int[] getHashes() {
+        return Arrays.copyOf(hashes, count);
+    }
+
+    public synchronized ArchiveEntry[] getEntries() {
+        final ArchiveEntry[] entries = new ArchiveEntry[count];
+
+        for (int i = 0; i < count; i++) {
+            entries[i] = entryAt(i);
         }
-        return false;
+
+        return entries;
     }
 
-    public int getEntryCount() {
-        return entries.size();
+    /**
+     * Creates a copy of this archive in the same mode, the entries are shared until either archive changes them.
+     */
+    public synchronized RSArchive copy() {
+        final RSArchive copy = new RSArchive(getEntries());
+        copy.extracted = extracted;
+        copy.setDecompressedCacheSize(decompressedCacheSize);
+        return copy;
     }
 
-    public ArchiveEntry[] getEntries() {
-        return entries.values().toArray(new ArchiveEntry[0]);
+    /**
+     * Starts a batch of changes to this archive.
+     */
+    public Editor edit() {
+        return new Editor();
     }
 
-    public boolean isExtracted() {
+    public synchronized boolean isExtracted() {
         return extracted;
     }
 
+    /**
+     * Switches between compressing this archive as a whole ({@code true}) and compressing each entry on its own
+     * ({@code false}), converting the entries that are already stored.
+     */
+    public synchronized void setExtracted(boolean extracted) throws IOException {
+        if (this.extracted == extracted) {
+            return;
+        }
+
+        byte[][] converted = new byte[count][];
+
+        if (extracted) {
+            for (int i = 0; i < count; i++) {
+                converted[i] = new byte[uncompressedSizes[i]];
+                CompressionUtils.debzip2(payload(i), converted[i]);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                converted[i] = bytes(i);
+            }
+
+            converted = CompressionUtils.bzip2(converted);
+        }
+
+        for (int i = 0; i < count; i++) {
+            set(i, hashes[i], uncompressedSizes[i], converted[i].length, converted[i]);
+        }
+
+        this.extracted = extracted;
+
+        version++;
+        decompressedEntries.clear();
+        decompressedSize = 0;
+    }
+
 }
\ No newline at end of file
@@ -2,8 +2,9 @@ package io.nshusa.rsam.binary;
 
 import io.nshusa.rsam.graphics.render.RSRaster;
 
+import io.nshusa.rsam.util.RSBuffer;
+
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.Random;
 
 public final class RSFont extends RSRaster {
@@ -26,29 +27,27 @@ public final class RSFont extends RSRaster {
 
     public static RSFont decode(RSArchive archive, String name, boolean wideSpace) throws IOException {
         RSFont font = new RSFont();
-        ByteBuffer data = archive.readFile(name + ".dat");
-        ByteBuffer meta = archive.readFile("index.dat");
-        meta.position((data.getShort() & 0xFFFF) + 4);
+        RSBuffer data = archive.readBuffer(name + ".dat");
+        RSBuffer meta = archive.readBuffer("index.dat");
+        meta.position(data.getUShort() + 4);
 
-        int position = meta.get() & 0xFF;
+        int position = meta.getUByte();
 
         if (position > 0) {
-            meta.position(meta.position() + 3 * (position -1));
+            meta.skip(3 * (position -1));
         }
 
         for (int character = 0; character < 256; character++) {
-            font.horizontalOffsets[character] = meta.get() & 0xFF;
-            font.verticalOffsets[character] = meta.get() & 0xFF;
-            int width = font.glyphWidths[character] = meta.getShort() & 0xFFFF;
-            int height = font.glyphHeights[character] = meta.getShort() & 0xFFFF;
-            int format = meta.get() & 0xFF;
+            font.horizontalOffsets[character] = meta.getUByte();
+            font.verticalOffsets[character] = meta.getUByte();
+            int width = font.glyphWidths[character] = meta.getUShort();
+            int height = font.glyphHeights[character] = meta.getUShort();
+            int format = meta.getUByte();
             int pixels = width * height;
             font.glyphs[character] = new byte[pixels];
 
             if (format == 0) {
-                for (int pixel = 0; pixel < pixels; pixel++) {
-                    font.glyphs[character][pixel] = data.get();
-                }
+                data.get(font.glyphs[character]);
             } else if (format == 1) {
                 for (int x = 0; x < width; x++) {
                     for (int y = 0; y < height; y++) {
@@ -1,11 +1,10 @@
 package io.nshusa.rsam.binary;
 
-import io.nshusa.rsam.util.ByteBufferUtils;
+import io.nshusa.rsam.util.RSBuffer;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.ByteBuffer;
 
 /**
  * @author Tom, modified by Freyr
@@ -49,47 +48,90 @@ public final class RSModel {
     public int[] secondaryTextureColor;
 
     public RSModel(byte[] data) {
-        decode(data);
-        upscale();
+        // a fresh arena sizes every array exactly, so the model can take them over as they are
+        final ModelArena arena = new ModelArena();
+        decode(data, arena);
+
+        vertices = arena.vertices;
+        faces = arena.faces;
+        texturedFaceCount = arena.texturedFaceCount;
+        maxDepth = arena.maxDepth;
+        verticesX = arena.verticesX;
+        verticesY = arena.verticesY;
+        verticesZ = arena.verticesZ;
+        facesX = arena.facesX;
+        facesY = arena.facesY;
+        facesZ = arena.facesZ;
+        colors = arena.colors;
+        textureMapX = texturedFaceCount > 0 ? arena.textureMapX : null;
+        textureMapY = texturedFaceCount > 0 ? arena.textureMapY : null;
+        textureMapZ = texturedFaceCount > 0 ? arena.textureMapZ : null;
+        vertexSkinTypes = arena.hasVertexSkinTypes ? arena.vertexSkinTypes : null;
+        triangleSkinTypes = arena.hasTriangleSkinTypes ? arena.triangleSkinTypes : null;
+        priorities = arena.hasPriorities ? arena.priorities : null;
+        alpha = arena.hasAlpha ? arena.alpha : null;
+        textures = arena.hasTextures ? arena.textures : null;
+        pointers = arena.hasPointers ? arena.pointers : null;
+        faceFillAttributes = arena.hasFaceFillAttributes ? arena.faceFillAttributes : null;
     }
 
-    private void decode(byte[] data) {
+    RSModel() {
+
+    }
+
+    /**
+     * Reads the footer of a model without decoding the rest of it.
+     *
+     * @return The header, or {@code null} if the data is too short to hold one.
+     */
+    public static ModelHeader peekHeader(byte[] data) {
+        if (data == null || data.length < ModelHeader.LENGTH) {
+            return null;
+        }
+
+        return new ModelHeader(new RSBuffer(data, data.length - ModelHeader.LENGTH, ModelHeader.LENGTH));
+    }
+
+    /**
+     * Decodes a model into a reusable arena instead of a new {@link RSModel}, with the vertices already upscaled.
+     */
+    public static void decode(byte[] data, ModelArena arena) {
         boolean canFillFaceAttributes = false;
         boolean textured = false;
 
-        ByteBuffer triangleColorBuffer = ByteBuffer.wrap(data);
-        ByteBuffer drawTypeBuffer = ByteBuffer.wrap(data);
-        ByteBuffer priorityBuffer = ByteBuffer.wrap(data);
-        ByteBuffer alphaBuffer = ByteBuffer.wrap(data);
-        ByteBuffer triangleSkinBuffer = ByteBuffer.wrap(data);
+        RSBuffer triangleColorBuffer = new RSBuffer(data);
+        RSBuffer drawTypeBuffer = new RSBuffer(data);
+        RSBuffer priorityBuffer = new RSBuffer(data);
+        RSBuffer alphaBuffer = new RSBuffer(data);
+        RSBuffer triangleSkinBuffer = new RSBuffer(data);
 
         triangleColorBuffer.position(data.length - 18);
 
-        vertices = triangleColorBuffer.getShort() & 0xffff;
-        faces = triangleColorBuffer.getShort() & 0xffff;
-        texturedFaceCount = triangleColorBuffer.get() & 0xff;
+        final int vertices = triangleColorBuffer.getUShort();
+        final int faces = triangleColorBuffer.getUShort();
+        final int texturedFaceCount = triangleColorBuffer.getUByte();
 
-        int useTextures = triangleColorBuffer.get() & 0xff;
+        int useTextures = triangleColorBuffer.getUByte();
 
-        int texturePriority = triangleColorBuffer.get() & 0xff;
+        int texturePriority = triangleColorBuffer.getUByte();
 
         if (texturePriority == 0xff) {
             texturePriority = -1;
         }
 
-        int useTransparency = triangleColorBuffer.get() & 0xff;
+        int useTransparency = triangleColorBuffer.getUByte();
 
-        int useTriangleSkins = triangleColorBuffer.get() & 0xff;
+        int useTriangleSkins = triangleColorBuffer.getUByte();
 
-        int useVertexSkinning = triangleColorBuffer.get() & 0xff;
+        int useVertexSkinning = triangleColorBuffer.getUByte();
 
-        int xDataOffset = triangleColorBuffer.getShort() & 0xffff;
+        int xDataOffset = triangleColorBuffer.getUShort();
 
-        int yDataOffset = triangleColorBuffer.getShort() & 0xffff;
+        int yDataOffset = triangleColorBuffer.getUShort();
 
-        int zDataOffset = triangleColorBuffer.getShort() & 0xffff;
+        int zDataOffset = triangleColorBuffer.getUShort();
 
-        int textureDataLength = triangleColorBuffer.getShort() & 0xffff;
+        int textureDataLength = triangleColorBuffer.getUShort();
 
         int offset = 0;
 
@@ -142,40 +184,25 @@ public final class RSModel {
 
         texturePriority = (byte) texturePriority;
 
-        if (texturePriority == -1) {
-            priorities = new byte[faces];
-        }
+        arena.vertices = vertices;
+        arena.faces = faces;
+        arena.texturedFaceCount = texturedFaceCount;
+        arena.hasPriorities = texturePriority == -1;
+        arena.hasTriangleSkinTypes = useTriangleSkins == 1;
+        arena.hasVertexSkinTypes = useVertexSkinning == 1;
+        arena.hasAlpha = useTransparency == 1;
 
-        if (useTriangleSkins == 1) {
-            triangleSkinTypes = new byte[faces];
-        }
-
-        if (useVertexSkinning == 1) {
-            vertexSkinTypes = new byte[vertices];
-        }
-
-        verticesX = new int[vertices];
-        verticesY = new int[vertices];
-        verticesZ = new int[vertices];
-        facesX = new short[faces];
-        facesY = new short[faces];
-        facesZ = new short[faces];
-        colors = new short[faces];
+        arena.ensureVertices(vertices, arena.hasVertexSkinTypes);
+        arena.ensureFaces(faces, arena.hasPriorities, arena.hasTriangleSkinTypes, useTextures == 1, arena.hasAlpha);
 
         if (texturedFaceCount > 0) {
-            textureMapY = new short[texturedFaceCount];
-            textureMapZ = new short[texturedFaceCount];
-            textureMapX = new short[texturedFaceCount];
-        }
-        if (useTextures == 1) {
-            faceFillAttributes = new byte[faces];
-            textures = new short[faces];
-            pointers = new byte[faces];
+            arena.ensureTexturedFaces(texturedFaceCount);
         }
 
-        if (useTransparency == 1) {
-            alpha = new byte[faces];
-        }
+        final int[] verticesX = arena.verticesX;
+        final int[] verticesY = arena.verticesY;
+        final int[] verticesZ = arena.verticesZ;
+        final byte[] vertexSkinTypes = arena.vertexSkinTypes;
 
         triangleColorBuffer.position(triangleColorBufferPos);
         drawTypeBuffer.position(xDataOffsetPos);
@@ -188,22 +215,32 @@ public final class RSModel {
         int vertexZ = 0;
 
         for (int vertex = 0; vertex != vertices; ++vertex) {
-            int vertexFlags = triangleColorBuffer.get() & 0xff;
-            int offsetX = (vertexFlags & 0x1) != 0 ? ByteBufferUtils.getSmart(drawTypeBuffer) : 0;
-            int offsetY = (vertexFlags & 0x2) != 0 ? ByteBufferUtils.getSmart(priorityBuffer) : 0;
-            int offsetZ = (vertexFlags & 0x4) != 0 ? ByteBufferUtils.getSmart(alphaBuffer) : 0;
+            int vertexFlags = triangleColorBuffer.getUByte();
+            int offsetX = (vertexFlags & 0x1) != 0 ? drawTypeBuffer.getSmart() : 0;
+            int offsetY = (vertexFlags & 0x2) != 0 ? priorityBuffer.getSmart() : 0;
+            int offsetZ = (vertexFlags & 0x4) != 0 ? alphaBuffer.getSmart() : 0;
             vertexX += offsetX;
             vertexY += offsetY;
             vertexZ += offsetZ;
-            verticesX[vertex] = vertexX;
-            verticesY[vertex] = vertexY;
-            verticesZ[vertex] = vertexZ;
+
+            // upscaled as they are stored
+            verticesX[vertex] = vertexX << 2;
+            verticesY[vertex] = vertexY << 2;
+            verticesZ[vertex] = vertexZ << 2;
 
             if (useVertexSkinning == 1) {
                 vertexSkinTypes[vertex] = triangleSkinBuffer.get();
             }
         }
 
+        final short[] colors = arena.colors;
+        final short[] textures = arena.textures;
+        final byte[] pointers = arena.pointers;
+        final byte[] faceFillAttributes = arena.faceFillAttributes;
+        final byte[] priorities = arena.priorities;
+        final byte[] alpha = arena.alpha;
+        final byte[] triangleSkinTypes = arena.triangleSkinTypes;
+
         triangleColorBuffer.position(triangleColorBufferPos2);
         drawTypeBuffer.position(drawTypeBufferPos);
         priorityBuffer.position(priorityBufferPos2);
@@ -211,9 +248,9 @@ public final class RSModel {
         triangleSkinBuffer.position(triangleSkinBufferPos2);
 
         for (int tri = 0; tri != faces; ++tri) {
-            colors[tri] = (short) (triangleColorBuffer.getShort() & 0xffff);
+            colors[tri] = triangleColorBuffer.getShort();
             if (useTextures == 1) {
-                int attr_mask = drawTypeBuffer.get() & 0xff;
+                int attr_mask = drawTypeBuffer.getUByte();
                 if ((attr_mask & 0x1) == 0) {
                     faceFillAttributes[tri] = 0;
                 } else {
@@ -247,7 +284,11 @@ public final class RSModel {
 
         }
 
-        maxDepth = -1;
+        final short[] facesX = arena.facesX;
+        final short[] facesY = arena.facesY;
+        final short[] facesZ = arena.facesZ;
+
+        int maxDepth = -1;
         triangleColorBuffer.position(triangleColorBufferPos3);
         drawTypeBuffer.position(drawTypeBufferPos2);
 
@@ -259,16 +300,16 @@ public final class RSModel {
 
         for (int triangle = 0; triangle != faces; ++triangle) {
 
-            int type = drawTypeBuffer.get() & 0xff;
+            int type = drawTypeBuffer.getUByte();
 
             switch (type) {
 
                 case 1:
-                    triangleX = (short) (ByteBufferUtils.getSmart(triangleColorBuffer) + previousZView);
+                    triangleX = (short) (triangleColorBuffer.getSmart() + previousZView);
                     previousZView = triangleX;
-                    triangleY = (short) (ByteBufferUtils.getSmart(triangleColorBuffer) + previousZView);
+                    triangleY = (short) (triangleColorBuffer.getSmart() + previousZView);
                     previousZView = triangleY;
-                    triangleZ = (short) (ByteBufferUtils.getSmart(triangleColorBuffer) + previousZView);
+                    triangleZ = (short) (triangleColorBuffer.getSmart() + previousZView);
                     previousZView = triangleZ;
                     facesX[triangle] = triangleX;
                     facesY[triangle] = triangleY;
@@ -288,7 +329,7 @@ public final class RSModel {
                     break;
                 case 2:
                     triangleY = triangleZ;
-                    triangleZ = (short) (ByteBufferUtils.getSmart(triangleColorBuffer) + previousZView);
+                    triangleZ = (short) (triangleColorBuffer.getSmart() + previousZView);
                     previousZView = triangleZ;
                     facesX[triangle] = triangleX;
                     facesY[triangle] = triangleY;
@@ -299,7 +340,7 @@ public final class RSModel {
                     break;
                 case 3:
                     triangleX = triangleZ;
-                    triangleZ = (short) (ByteBufferUtils.getSmart(triangleColorBuffer) + previousZView);
+                    triangleZ = (short) (triangleColorBuffer.getSmart() + previousZView);
                     previousZView = triangleZ;
                     facesX[triangle] = triangleX;
                     facesY[triangle] = triangleY;
@@ -311,7 +352,7 @@ public final class RSModel {
                 case 4:
                     short prev_x_view = triangleX;
                     triangleX = triangleY;
-                    triangleZ = (short) (ByteBufferUtils.getSmart(triangleColorBuffer) + previousZView);
+                    triangleZ = (short) (triangleColorBuffer.getSmart() + previousZView);
                     triangleY = prev_x_view;
                     previousZView = triangleZ;
                     facesX[triangle] = triangleX;
@@ -321,24 +362,39 @@ public final class RSModel {
                         maxDepth = triangleZ;
                     }
                     break;
+                default:
+                    // faces of an unknown type are left zeroed, as in a new array
+                    facesX[triangle] = 0;
+                    facesY[triangle] = 0;
+                    facesZ[triangle] = 0;
+                    break;
             }
         }
 
+        final short[] textureMapX = arena.textureMapX;
+        final short[] textureMapY = arena.textureMapY;
+        final short[] textureMapZ = arena.textureMapZ;
+
         triangleColorBuffer.position(texture_map_buffer_pos);
 
-        ++maxDepth;
+        arena.maxDepth = ++maxDepth;
         for (int tri = 0; tri != texturedFaceCount; ++tri) {
-            textureMapX[tri] = (short) (triangleColorBuffer.getShort() & 0xffff);
-            textureMapY[tri] = (short) (triangleColorBuffer.getShort() & 0xffff);
-            textureMapZ[tri] = (short) (triangleColorBuffer.getShort() & 0xffff);
+            textureMapX[tri] = triangleColorBuffer.getShort();
+            textureMapY[tri] = triangleColorBuffer.getShort();
+            textureMapZ[tri] = triangleColorBuffer.getShort();
         }
-        if (pointers != null) {
 
-            boolean hasPointers = false;
+        boolean hasPointers = false;
 
+        if (useTextures == 1) {
             for (int triangle = 0; triangle != faces; ++triangle) {
                 int pointerMask = pointers[triangle] & 0xff;
-                if (pointerMask != 0xff)
+                if (pointerMask != 0xff) {
+                    if (pointerMask >= texturedFaceCount) {
+                        // the arena may hold more textured faces than this model has
+                        throw new ArrayIndexOutOfBoundsException(pointerMask);
+                    }
+
                     if (textureMapX[pointerMask] != facesX[triangle]
                             || facesY[triangle] != textureMapY[pointerMask]
                             || facesZ[triangle] != textureMapZ[pointerMask]) {
@@ -346,26 +402,13 @@ public final class RSModel {
                     } else {
                         pointers[triangle] = -1;
                     }
-
-            }
-            if (!hasPointers) {
-                pointers = null;
+                }
             }
         }
-        if (!canFillFaceAttributes) {
-            faceFillAttributes = null;
-        }
-        if (!textured) {
-            textures = null;
-        }
-    }
 
-    private void upscale() {
-        for (int index = 0; index != vertices; ++index) {
-            verticesX[index] <<= 2;
-            verticesY[index] <<= 2;
-            verticesZ[index] <<= 2;
-        }
+        arena.hasPointers = hasPointers;
+        arena.hasFaceFillAttributes = useTextures == 1 && canFillFaceAttributes;
+        arena.hasTextures = useTextures == 1 && textured;
     }
 
     public void scale(int x, int y, int z) {
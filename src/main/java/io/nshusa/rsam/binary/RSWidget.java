@@ -2,14 +2,14 @@ package io.nshusa.rsam.binary;
 
 import io.nshusa.rsam.binary.sprite.RSSprite;
 import io.nshusa.rsam.graphics.render.RSRaster;
-import io.nshusa.rsam.util.ByteBufferUtils;
 import io.nshusa.rsam.util.HashUtils;
+import io.nshusa.rsam.util.RSBuffer;
 import io.nshusa.rsam.util.RenderUtils;
+import io.nshusa.rsam.util.StringPool;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -62,66 +62,73 @@ public class RSWidget {
     }
 
     public static void decode(RSArchive interfaces, RSArchive graphics, RSFont[] fonts) throws IOException {
-        ByteBuffer buffer = interfaces.readFile("data");
-        widgets = new RSWidget[buffer.getShort() & 0xFFFF];
+        decode(interfaces, graphics, fonts, null);
+    }
+
+    /**
+     * Decodes the widgets, taking every string from the specified pool so repeated text is only kept once.
+     */
+    public static void decode(RSArchive interfaces, RSArchive graphics, RSFont[] fonts, StringPool pool) throws IOException {
+        RSBuffer buffer = interfaces.readBuffer("data");
+        widgets = new RSWidget[buffer.getUShort()];
 
         int parent = -1;
 
         while (buffer.position() < buffer.remaining()) {
-            int id = buffer.getShort() & 0xFFFF;
+            int id = buffer.getUShort();
             if (id == 65535) {
-                parent = buffer.getShort() & 0xFFFF;
-                id = buffer.getShort() & 0xFFFF;
+                parent = buffer.getUShort();
+                id = buffer.getUShort();
             }
 
             RSWidget widget = new RSWidget(id);
             widget.parent = parent;
-            widget.group = buffer.get() & 0xFF;
-            widget.optionType = buffer.get() & 0xFF;
-            widget.contentType = buffer.getShort() & 0xFFFF;
-            widget.width = buffer.getShort() & 0xFFFF;
-            widget.height = buffer.getShort() & 0xFFFF;
-            widget.alpha = (byte)(buffer.get() & 0xFF);
+            widget.group = buffer.getUByte();
+            widget.optionType = buffer.getUByte();
+            widget.contentType = buffer.getUShort();
+            widget.width = buffer.getUShort();
+            widget.height = buffer.getUShort();
+            widget.alpha = (byte)buffer.getUByte();
 
-            int hover = buffer.get() & 0xFF;
-            widget.hoverId = (hover != 0) ? (hover - 1 << 8) | buffer.get() & 0xFF : -1;
+            int hover = buffer.getUByte();
+            widget.hoverId = (hover != 0) ? (hover - 1 << 8) | buffer.getUByte() : -1;
 
-            int operators = buffer.get() & 0xFF;
+            int operators = buffer.getUByte();
             if (operators > 0) {
                 widget.scriptOperators = new int[operators];
                 widget.scriptDefaults = new int[operators];
 
                 for (int index = 0; index < operators; index++) {
-                    widget.scriptOperators[index] = buffer.get() & 0xFF;
-                    widget.scriptDefaults[index] = buffer.getShort() & 0xFFFF;
+                    widget.scriptOperators[index] = buffer.getUByte();
+                    widget.scriptDefaults[index] = buffer.getUShort();
                 }
             }
 
-            int scripts = buffer.get() & 0xFF;
+            int scripts = buffer.getUByte();
             if (scripts > 0) {
                 widget.scripts = new int[scripts][];
 
                 for (int script = 0; script < scripts; script++) {
-                    int instructions = buffer.getShort() & 0xFFFF;
+                    int instructions = buffer.getUShort();
                     widget.scripts[script] = new int[instructions];
 
                     for (int instruction = 0; instruction < instructions; instruction++) {
-                        widget.scripts[script][instruction] = buffer.getShort() & 0xFFFF;
+                        widget.scripts[script][instruction] = buffer.getUShort();
                     }
                 }
             }
 
             if (widget.group == TYPE_CONTAINER) {
-                widget.scrollLimit = buffer.getShort() & 0xFFFF;
-                widget.hidden = (buffer.get() & 0xFF) == 1;
+                widget.scrollLimit = buffer.getUShort();
+                widget.hidden = buffer.getUByte() == 1;
 
-                int children = buffer.getShort() & 0xFFFF;
+                int children = buffer.getUShort();
                 widget.children = new int[children];
                 widget.childX = new int[children];
                 widget.childY = new int[children];
 
                 for (int index = 0; index < children; index++) {
-                    widget.children[index] = buffer.getShort() & 0xFFFF;
+                    widget.children[index] = buffer.getUShort();
                     widget.childX[index] = buffer.getShort();
                     widget.childY[index] = buffer.getShort();
                 }
@@ -136,24 +143,24 @@ public class RSWidget {
                 widget.inventoryIds = new int[widget.width * widget.height];
                 widget.inventoryAmounts = new int[widget.width * widget.height];
 
-                widget.swappableItems = (buffer.get() & 0xFF) == 1;
-                widget.hasActions = (buffer.get() & 0xFF) == 1;
-                widget.usableItems = (buffer.get() & 0xFF) == 1;
-                widget.replaceItems = (buffer.get() & 0xFF) == 1;
+                widget.swappableItems = buffer.getUByte() == 1;
+                widget.hasActions = buffer.getUByte() == 1;
+                widget.usableItems = buffer.getUByte() == 1;
+                widget.replaceItems = buffer.getUByte() == 1;
 
-                widget.spritePaddingX = buffer.get() & 0xFF;
-                widget.spritePaddingY = buffer.get() & 0xFF;
+                widget.spritePaddingX = buffer.getUByte();
+                widget.spritePaddingY = buffer.getUByte();
 
                 widget.spriteX = new int[20];
                 widget.spriteY = new int[20];
                 widget.sprites = new RSSprite[20];
 
                 for (int index = 0; index < 20; index++) {
-                    int exists = buffer.get() & 0xFF;
+                    int exists = buffer.getUByte();
                     if (exists == 1) {
                         widget.spriteX[index] = buffer.getShort();
                         widget.spriteY[index] = buffer.getShort();
-                        String name = ByteBufferUtils.getString(buffer);
+                        String name = buffer.getString(pool);
 
                         if (graphics != null && name.length() > 0) {
                             int position = name.lastIndexOf(",");
@@ -166,7 +173,7 @@ public class RSWidget {
 
                 widget.actions = new String[5];
                 for (int index = 0; index < 5; index++) {
-                    widget.actions[index] = ByteBufferUtils.getString(buffer);
+                    widget.actions[index] = buffer.getString(pool);
 
                     if (widget.actions[index].isEmpty()) {
                         widget.actions[index] = null;
@@ -175,23 +182,23 @@ public class RSWidget {
             }
 
             if (widget.group == TYPE_RECTANGLE) {
-                widget.filled = (buffer.get() & 0xFF) == 1;
+                widget.filled = buffer.getUByte() == 1;
             }
 
             if (widget.group == TYPE_TEXT || widget.group == TYPE_MODEL_LIST) {
-                widget.centeredText = (buffer.get() & 0xFF) == 1;
-                int font = buffer.get() & 0xFF;
+                widget.centeredText = buffer.getUByte() == 1;
+                int font = buffer.getUByte();
 
                 if (fonts != null) {
                     widget.font = fonts[font];
                 }
 
-                widget.shadowedText = (buffer.get() & 0xFF) == 1;
+                widget.shadowedText = buffer.getUByte() == 1;
             }
 
             if (widget.group == TYPE_TEXT) {
-                widget.defaultText = ByteBufferUtils.getString(buffer);
-                widget.secondaryText = ByteBufferUtils.getString(buffer);
+                widget.defaultText = buffer.getString(pool);
+                widget.secondaryText = buffer.getString(pool);
             }
 
             if (widget.group == TYPE_MODEL_LIST || widget.group == TYPE_RECTANGLE
@@ -204,62 +211,62 @@ public class RSWidget {
                 widget.defaultHoverColour = buffer.getInt();
                 widget.secondaryHoverColour = buffer.getInt();
             } else if (widget.group == TYPE_SPRITE) {
-                String name = ByteBufferUtils.getString(buffer);
+                String name = buffer.getString(pool);
                 if (graphics != null && name.length() > 0) {
                     int index = name.lastIndexOf(",");
                     widget.defaultSprite = getSprite(graphics, name.substring(0, index),
                             Integer.parseInt(name.substring(index + 1)));
                 }
 
-                name = ByteBufferUtils.getString(buffer);
+                name = buffer.getString(pool);
                 if (graphics != null && name.length() > 0) {
                     int index = name.lastIndexOf(",");
                     widget.secondarySprite = getSprite(graphics, name.substring(0, index),
                             Integer.parseInt(name.substring(index + 1)));
                 }
             } else if (widget.group == TYPE_MODEL) {
-                int content = buffer.get() & 0xFF;
+                int content = buffer.getUByte();
                 if (content != 0) {
                     widget.defaultMediaType = 1;
                     widget.defaultMedia = (content - 1 << 8) + buffer.get() & 0xFF;
                 }
 
-                content = buffer.get() & 0xFF;
+                content = buffer.getUByte();
                 if (content != 0) {
                     widget.secondaryMediaType = 1;
                     widget.secondaryMedia = (content - 1 << 8) + buffer.get() & 0xFF;
                 }
 
-                content = buffer.get() & 0xFF;
+                content = buffer.getUByte();
                 widget.defaultAnimationId = (content != 0) ? (content - 1 << 8) + buffer.get() & 0xFF
                         : -1;
 
-                content = buffer.get() & 0xFF;
+                content = buffer.getUByte();
                 widget.secondaryAnimationId = (content != 0) ? (content - 1 << 8) + buffer.get() & 0xFF
                         : -1;
 
-                widget.spriteScale = buffer.getShort() & 0xFFFF;
-                widget.spritePitch = buffer.getShort() & 0xFFFF;
-                widget.spriteRoll = buffer.getShort() & 0xFFFF;
+                widget.spriteScale = buffer.getUShort();
+                widget.spritePitch = buffer.getUShort();
+                widget.spriteRoll = buffer.getUShort();
             } else if (widget.group == TYPE_ITEM_LIST) {
                 widget.inventoryIds = new int[widget.width * widget.height];
                 widget.inventoryAmounts = new int[widget.width * widget.height];
-                widget.centeredText = (buffer.get() & 0xFF) == 1;
+                widget.centeredText = buffer.getUByte() == 1;
 
-                int font = buffer.get() & 0xFF;
+                int font = buffer.getUByte();
                 if (fonts != null) {
                     widget.font = fonts[font];
                 }
 
-                widget.shadowedText = (buffer.get() & 0xFF) == 1;
+                widget.shadowedText = buffer.getUByte() == 1;
                 widget.defaultColour = buffer.getInt();
                 widget.spritePaddingX = buffer.getShort();
                 widget.spritePaddingY = buffer.getShort();
-                widget.hasActions = (buffer.get() & 0xFF) == 1;
+                widget.hasActions = buffer.getUByte() == 1;
                 widget.actions = new String[5];
 
                 for (int index = 0; index < 5; index++) {
-                    widget.actions[index] = ByteBufferUtils.getString(buffer);
+                    widget.actions[index] = buffer.getString(pool);
 
                     if (widget.actions[index].isEmpty()) {
                         widget.actions[index] = null;
@@ -268,15 +275,15 @@ public class RSWidget {
             }
 
             if (widget.optionType == OPTION_USABLE || widget.group == TYPE_INVENTORY) {
-                widget.optionCircumfix = ByteBufferUtils.getString(buffer);
-                widget.optionText = ByteBufferUtils.getString(buffer);
-                widget.optionAttributes = buffer.getShort() & 0xFFFF;
+                widget.optionCircumfix = buffer.getString(pool);
+                widget.optionText = buffer.getString(pool);
+                widget.optionAttributes = buffer.getUShort();
             }
 
             if (widget.optionType == OPTION_OK || widget.optionType == OPTION_TOGGLE_SETTING
                     || widget.optionType == OPTION_RESET_SETTING
                     || widget.optionType == OPTION_CONTINUE) {
-                widget.hover = ByteBufferUtils.getString(buffer);
+                widget.hover = buffer.getString(pool);
 
                 if (widget.hover.isEmpty()) {
                     if (widget.optionType == OPTION_OK) {
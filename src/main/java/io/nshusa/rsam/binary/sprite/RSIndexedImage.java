@@ -1,10 +1,9 @@
 package io.nshusa.rsam.binary.sprite;
 
 import io.nshusa.rsam.binary.RSArchive;
-import io.nshusa.rsam.util.ByteBufferUtils;
+import io.nshusa.rsam.util.RSBuffer;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 public final class RSIndexedImage {
 
@@ -24,14 +23,14 @@ public final class RSIndexedImage {
     }
 
     public static RSIndexedImage decode(RSArchive archive, String s, int i) throws IOException {
-        ByteBuffer dataBuffer = archive.readFile(s + ".dat");
-        ByteBuffer metaBuffer = archive.readFile("index.dat");
+        RSBuffer dataBuffer = archive.readBuffer(s + ".dat");
+        RSBuffer metaBuffer = archive.readBuffer("index.dat");
 
-        metaBuffer.position(dataBuffer.getShort() & 0xffff);
+        metaBuffer.position(dataBuffer.getUShort());
 
-        final int resizeWidth = metaBuffer.getShort() & 0xffff;
-        final int resizeHeight = metaBuffer.getShort() & 0xffff;
-        final int colorLength = metaBuffer.get() & 0xff;
+        final int resizeWidth = metaBuffer.getUShort();
+        final int resizeHeight = metaBuffer.getUShort();
+        final int colorLength = metaBuffer.getUByte();
 
         final int[] palette = new int[colorLength];
 
@@ -41,27 +40,25 @@ public final class RSIndexedImage {
         indexedImage.resizeHeight = resizeHeight;
 
         for (int index = 0; index < colorLength - 1; index++) {
-            indexedImage.palette[index + 1] = ByteBufferUtils.readU24Int(metaBuffer);
+            indexedImage.palette[index + 1] = metaBuffer.getUMedium();
         }
 
         for (int l = 0; l < i; l++) {
-            metaBuffer.position(metaBuffer.position() + 2);
+            metaBuffer.skip(2);
             dataBuffer.position(dataBuffer.position() + metaBuffer.getShort() & 0xffff * metaBuffer.getShort() & 0xffff);
-            metaBuffer.position(metaBuffer.position() + 1);
+            metaBuffer.skip(1);
         }
 
-        indexedImage.drawOffsetX = metaBuffer.get() & 0xff;
-        indexedImage.drawOffsetY = metaBuffer.get() & 0xff;
-        indexedImage.width = metaBuffer.getShort() & 0xffff;
-        indexedImage.height = metaBuffer.getShort() & 0xffff;
-        int type = metaBuffer.get() & 0xff;
+        indexedImage.drawOffsetX = metaBuffer.getUByte();
+        indexedImage.drawOffsetY = metaBuffer.getUByte();
+        indexedImage.width = metaBuffer.getUShort();
+        indexedImage.height = metaBuffer.getUShort();
+        int type = metaBuffer.getUByte();
         int pixels = indexedImage.width * indexedImage.height;
         indexedImage.palettePixels = new byte[pixels];
 
         if (type == 0) {
-            for (int index = 0; index < pixels; index++) {
-                indexedImage.palettePixels[index] = dataBuffer.get();
-            }
+            dataBuffer.get(indexedImage.palettePixels);
         } else if (type == 1) {
             for (int x = 0; x < indexedImage.width; x++) {
                 for (int y = 0; y < indexedImage.height; y++) {
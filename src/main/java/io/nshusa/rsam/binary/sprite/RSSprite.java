@@ -2,13 +2,12 @@ package io.nshusa.rsam.binary.sprite;
 
 import io.nshusa.rsam.binary.RSArchive;
 import io.nshusa.rsam.graphics.render.RSRaster;
-import io.nshusa.rsam.util.ByteBufferUtils;
 import io.nshusa.rsam.util.HashUtils;
+import io.nshusa.rsam.util.RSBuffer;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 public final class RSSprite {
 
@@ -44,55 +43,55 @@ public final class RSSprite {
     }
 
     public static RSSprite decode(RSArchive archive, int hash, int id) throws IOException {
-        ByteBuffer dataBuf = archive.readFile(hash);
-        ByteBuffer metaBuf = archive.readFile("index.dat");
+        RSBuffer dataBuf = archive.readBuffer(hash);
+        RSBuffer metaBuf = archive.readBuffer("index.dat");
 
         RSSprite sprite = new RSSprite();
 
         // position of the current image archive within the archive
-        metaBuf.position(dataBuf.getShort() & 0xFFFF);
+        metaBuf.position(dataBuf.getUShort());
 
         // the maximum width the images in this archive can scale to
-        sprite.setResizeWidth(metaBuf.getShort() & 0xFFFF);
+        sprite.setResizeWidth(metaBuf.getUShort());
 
         // the maximum height the images in this archive can scale to
-        sprite.setResizeHeight(metaBuf.getShort() & 0xFFFF);
+        sprite.setResizeHeight(metaBuf.getUShort());
 
         // the number of colors that are used in this image archive (limit is 256 if one of the rgb values is 0 else its 255)
-        int colours = metaBuf.get() & 0xFF;
+        int colours = metaBuf.getUByte();
 
         // the array of colors that can only be used in this archive
         int[] palette = new int[colours];
 
         for (int index = 0; index < colours - 1; index++) {
-            int colour = ByteBufferUtils.readU24Int(metaBuf);
+            int colour = metaBuf.getUMedium();
             // + 1 because index = 0 is for transparency, = 1 is a flag for opacity. (BufferedImage#OPAQUE)
             palette[index + 1] = colour == 0 ? 1 : colour;
         }
 
         for (int i = 0; i < id; i++) {
             // skip the current offsetX and offsetY
-            metaBuf.position(metaBuf.position() + 2);
+            metaBuf.skip(2);
 
             // skip the current array of pixels
-            dataBuf.position(dataBuf.position() + ((metaBuf.getShort() & 0xFFFF) * (metaBuf.getShort() & 0xFFFF)));
+            dataBuf.skip(metaBuf.getUShort() * metaBuf.getUShort());
 
             // skip the current format
-            metaBuf.position(metaBuf.position() + 1);
+            metaBuf.skip(1);
         }
 
         // offsets are used to reposition the sprite on an interface.
-        sprite.setOffsetX(metaBuf.get() & 0xFF);
-        sprite.setOffsetY(metaBuf.get() & 0xFF);
+        sprite.setOffsetX(metaBuf.getUByte());
+        sprite.setOffsetY(metaBuf.getUByte());
 
         // actual width of this sprite
-        sprite.setWidth(metaBuf.getShort() & 0xFFFF);
+        sprite.setWidth(metaBuf.getUShort());
 
         // actual height of this sprite
-        sprite.setHeight(metaBuf.getShort() & 0xFFFF);
+        sprite.setHeight(metaBuf.getUShort());
 
         // there are 2 ways the pixels can be written (0 or 1, 0 means the position is read horizontally, 1 means vertically)
-        sprite.setFormat(metaBuf.get() & 0xFF);
+        sprite.setFormat(metaBuf.getUByte());
 
         if (sprite.getFormat() != 0 && sprite.getFormat() != 1) {
             throw new IOException(String.format("Detected end of archive=%d id=%d or wrong format=%d", hash, id, sprite.getFormat()));
@@ -106,12 +105,12 @@ public final class RSSprite {
 
         if (sprite.getFormat() == 0) { // read horizontally
             for (int index = 0; index < raster.length; index++) {
-                raster[index] = palette[dataBuf.get() & 0xFF];
+                raster[index] = palette[dataBuf.getUByte()];
             }
         } else if (sprite.getFormat() == 1) { // read vertically
             for (int x = 0; x < sprite.getWidth(); x++) {
                 for (int y = 0; y < sprite.getHeight(); y++) {
-                    raster[x + y * sprite.getWidth()] = palette[dataBuf.get() & 0xFF];
+                    raster[x + y * sprite.getWidth()] = palette[dataBuf.getUByte()];
                 }
             }
         }
@@ -0,0 +1,421 @@
+package io.nshusa.rsam.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A bzip2 decompressor for the headerless, block size 1 streams used by the cache. It decodes straight from a source
+ * array into a destination array and keeps all of its tables in a per-thread state, so a call allocates nothing.
+ */
+final class BZip2Decompressor {
+
+    private static final int BLOCK_LENGTH = 100_000;
+
+    private static final int MAX_GROUPS = 6;
+    private static final int GROUP_SIZE = 50;
+    private static final int MAX_ALPHA_SIZE = 258;
+    private static final int MAX_CODE_LENGTH = 23;
+    private static final int MAX_SELECTORS = 18002;
+
+    private static final int RUN_A = 0;
+    private static final int RUN_B = 1;
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+
+    private static final ThreadLocal<BZip2Decompressor> decompressors = ThreadLocal.withInitial(BZip2Decompressor::new);
+
+    private final int[] tt = new int[BLOCK_LENGTH];
+    private final int[] unzftab = new int[256];
+    private final int[] cftab = new int[257];
+    private final boolean[] inUse = new boolean[256];
+    private final byte[] seqToUnseq = new byte[256];
+    private final byte[] mtf = new byte[256];
+    private final byte[] selectors = new byte[MAX_SELECTORS];
+    private final byte[] selectorMtf = new byte[MAX_SELECTORS];
+    private final byte[] positions = new byte[MAX_GROUPS];
+    private final int[][] lengths = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+    private final int[][] limits = new int[MAX_GROUPS][MAX_CODE_LENGTH];
+    private final int[][] bases = new int[MAX_GROUPS][MAX_CODE_LENGTH];
+    private final int[][] perms = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+    private final int[] minLengths = new int[MAX_GROUPS];
+
+    private byte[] src;
+    private int srcPos;
+    private int srcEnd;
+    private int bitBuffer;
+    private int bitCount;
+
+    private BZip2Decompressor() {
+
+    }
+
+    /**
+     * Decompresses {@code srcLength} bytes of {@code src} into {@code dstLength} bytes of {@code dst}.
+     *
+     * @return {@code false} if the stream uses a feature this decompressor does not handle (randomised blocks), in
+     * which case nothing meaningful has been written and the caller should fall back to a general decompressor.
+     * @throws IOException If the stream is corrupt or ends before {@code dstLength} bytes were produced.
+     */
+    static boolean decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) throws IOException {
+        final BZip2Decompressor decompressor = decompressors.get();
+
+        try {
+            return decompressor.run(src, srcOffset, srcLength, dst, dstOffset, dstLength);
+        } finally {
+            decompressor.src = null;
+        }
+    }
+
+    private boolean run(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) throws IOException {
+        this.src = src;
+        this.srcPos = srcOffset;
+        this.srcEnd = srcOffset + srcLength;
+        this.bitBuffer = 0;
+        this.bitCount = 0;
+
+        int out = dstOffset;
+        final int dstEnd = dstOffset + dstLength;
+
+        while (out < dstEnd) {
+            final long magic = ((long) bits(24) << 24) | bits(24);
+
+            if (magic == END_MAGIC) {
+                throw new EOFException(String.format("bzip2 stream ended after %d of %d bytes", out - dstOffset, dstLength));
+            }
+
+            if (magic != BLOCK_MAGIC) {
+                throw new IOException("bad bzip2 block header");
+            }
+
+            // block crc, not checked
+            bits(16);
+            bits(16);
+
+            if (bit()) {
+                return false;
+            }
+
+            final int origPtr = bits(24);
+            final int blockLength = readBlock();
+
+            if (origPtr < 0 || origPtr >= blockLength) {
+                throw new IOException("bad bzip2 origin pointer");
+            }
+
+            out = inverseBwt(origPtr, blockLength, dst, out, dstEnd);
+        }
+
+        return true;
+    }
+
+    private int readBlock() throws IOException {
+        // symbol map
+        int nInUse = 0;
+        final int inUse16 = bits(16);
+
+        for (int i = 0; i < 16; i++) {
+            if ((inUse16 & (0x8000 >>> i)) != 0) {
+                final int used = bits(16);
+
+                for (int j = 0; j < 16; j++) {
+                    inUse[i * 16 + j] = (used & (0x8000 >>> j)) != 0;
+                }
+            } else {
+                for (int j = 0; j < 16; j++) {
+                    inUse[i * 16 + j] = false;
+                }
+            }
+        }
+
+        for (int i = 0; i < 256; i++) {
+            if (inUse[i]) {
+                seqToUnseq[nInUse++] = (byte) i;
+            }
+        }
+
+        if (nInUse == 0) {
+            throw new IOException("bzip2 block uses no symbols");
+        }
+
+        final int alphaSize = nInUse + 2;
+
+        // selectors
+        final int groups = bits(3);
+        final int selectorCount = bits(15);
+
+        if (groups < 2 || groups > MAX_GROUPS || selectorCount < 1) {
+            throw new IOException("bad bzip2 huffman groups");
+        }
+
+        for (int i = 0; i < selectorCount; i++) {
+            int j = 0;
+            while (bit()) {
+                if (++j >= groups) {
+                    throw new IOException("bad bzip2 selector");
+                }
+            }
+
+            if (i < MAX_SELECTORS) {
+                selectorMtf[i] = (byte) j;
+            }
+        }
+
+        final int selectorsUsed = Math.min(selectorCount, MAX_SELECTORS);
+
+        for (int i = 0; i < groups; i++) {
+            positions[i] = (byte) i;
+        }
+
+        for (int i = 0; i < selectorsUsed; i++) {
+            int v = selectorMtf[i];
+            final byte tmp = positions[v];
+            while (v > 0) {
+                positions[v] = positions[v - 1];
+                v--;
+            }
+            positions[0] = tmp;
+            selectors[i] = tmp;
+        }
+
+        // coding tables
+        for (int t = 0; t < groups; t++) {
+            int current = bits(5);
+            final int[] length = lengths[t];
+
+            for (int i = 0; i < alphaSize; i++) {
+                while (true) {
+                    if (current < 1 || current > 20) {
+                        throw new IOException("bad bzip2 code length");
+                    }
+
+                    if (!bit()) {
+                        break;
+                    }
+
+                    current += bit() ? -1 : 1;
+                }
+
+                length[i] = current;
+            }
+
+            int minLength = 32;
+            int maxLength = 0;
+
+            for (int i = 0; i < alphaSize; i++) {
+                minLength = Math.min(minLength, length[i]);
+                maxLength = Math.max(maxLength, length[i]);
+            }
+
+            createDecodeTables(limits[t], bases[t], perms[t], length, minLength, maxLength, alphaSize);
+            minLengths[t] = minLength;
+        }
+
+        // huffman + move to front
+        final int eob = nInUse + 1;
+
+        for (int i = 0; i < 256; i++) {
+            unzftab[i] = 0;
+            mtf[i] = (byte) i;
+        }
+
+        int blockLength = 0;
+        int groupIndex = -1;
+        int groupRemaining = 0;
+
+        int[] limit = null;
+        int[] base = null;
+        int[] perm = null;
+        int minLength = 0;
+
+        int runLength = -1;
+        int runWeight = 1;
+
+        while (true) {
+            if (groupRemaining == 0) {
+                if (++groupIndex >= selectorsUsed) {
+                    throw new IOException("bzip2 block ran out of selectors");
+                }
+
+                groupRemaining = GROUP_SIZE;
+
+                final int group = selectors[groupIndex];
+                limit = limits[group];
+                base = bases[group];
+                perm = perms[group];
+                minLength = minLengths[group];
+            }
+
+            groupRemaining--;
+
+            int length = minLength;
+            int code = bits(length);
+
+            while (code > limit[length]) {
+                if (++length >= MAX_CODE_LENGTH) {
+                    throw new IOException("bad bzip2 huffman code");
+                }
+                code = (code << 1) | (bit() ? 1 : 0);
+            }
+
+            final int index = code - base[length];
+
+            if (index < 0 || index >= MAX_ALPHA_SIZE) {
+                throw new IOException("bad bzip2 huffman code");
+            }
+
+            final int symbol = perm[index];
+
+            if (symbol == RUN_A || symbol == RUN_B) {
+                if (runLength == -1) {
+                    runLength = 0;
+                    runWeight = 1;
+                }
+
+                runLength += (symbol == RUN_A ? 1 : 2) * runWeight;
+                runWeight <<= 1;
+
+                if (runLength > BLOCK_LENGTH) {
+                    throw new IOException("bzip2 run too long");
+                }
+                continue;
+            }
+
+            if (runLength != -1) {
+                final int value = seqToUnseq[mtf[0] & 0xFF] & 0xFF;
+                unzftab[value] += runLength;
+
+                if (blockLength + runLength > BLOCK_LENGTH) {
+                    throw new IOException("bzip2 block too long");
+                }
+
+                while (runLength-- > 0) {
+                    tt[blockLength++] = value;
+                }
+
+                runLength = -1;
+            }
+
+            if (symbol == eob) {
+                break;
+            }
+
+            if (blockLength >= BLOCK_LENGTH) {
+                throw new IOException("bzip2 block too long");
+            }
+
+            int position = symbol - 1;
+            final byte moved = mtf[position];
+            while (position > 0) {
+                mtf[position] = mtf[position - 1];
+                position--;
+            }
+            mtf[0] = moved;
+
+            final int value = seqToUnseq[moved & 0xFF] & 0xFF;
+            unzftab[value]++;
+            tt[blockLength++] = value;
+        }
+
+        return blockLength;
+    }
+
+    private int inverseBwt(int origPtr, int blockLength, byte[] dst, int out, int dstEnd) {
+        cftab[0] = 0;
+        for (int i = 1; i <= 256; i++) {
+            cftab[i] = cftab[i - 1] + unzftab[i - 1];
+        }
+
+        for (int i = 0; i < blockLength; i++) {
+            final int value = tt[i] & 0xFF;
+            tt[cftab[value]++] |= i << 8;
+        }
+
+        int position = tt[origPtr] >>> 8;
+
+        // undo the initial run length encoding: 4 equal bytes are followed by a count of extra repeats
+        int previous = -1;
+        int run = 0;
+
+        for (int i = 0; i < blockLength && out < dstEnd; i++) {
+            position = tt[position];
+            final int value = position & 0xFF;
+            position >>>= 8;
+
+            if (run == 4) {
+                for (int repeat = 0; repeat < value && out < dstEnd; repeat++) {
+                    dst[out++] = (byte) previous;
+                }
+
+                run = 0;
+                previous = -1;
+                continue;
+            }
+
+            if (value == previous) {
+                run++;
+            } else {
+                run = 1;
+                previous = value;
+            }
+
+            dst[out++] = (byte) value;
+        }
+
+        return out;
+    }
+
+    private static void createDecodeTables(int[] limit, int[] base, int[] perm, int[] length, int minLength, int maxLength, int alphaSize) {
+        int pp = 0;
+        for (int i = minLength; i <= maxLength; i++) {
+            for (int j = 0; j < alphaSize; j++) {
+                if (length[j] == i) {
+                    perm[pp++] = j;
+                }
+            }
+        }
+
+        for (int i = 0; i < MAX_CODE_LENGTH; i++) {
+            base[i] = 0;
+            limit[i] = 0;
+        }
+
+        for (int i = 0; i < alphaSize; i++) {
+            base[length[i] + 1]++;
+        }
+
+        for (int i = 1; i < MAX_CODE_LENGTH; i++) {
+            base[i] += base[i - 1];
+        }
+
+        int vec = 0;
+        for (int i = minLength; i <= maxLength; i++) {
+            vec += base[i + 1] - base[i];
+            limit[i] = vec - 1;
+            vec <<= 1;
+        }
+
+        for (int i = minLength + 1; i <= maxLength; i++) {
+            base[i] = ((limit[i - 1] + 1) << 1) - base[i];
+        }
+    }
+
+    private boolean bit() throws IOException {
+        return bits(1) != 0;
+    }
+
+    private int bits(int count) throws IOException {
+        while (bitCount < count) {
+            if (srcPos >= srcEnd) {
+                throw new EOFException("unexpected end of bzip2 stream");
+            }
+
+            bitBuffer = (bitBuffer << 8) | (src[srcPos++] & 0xFF);
+            bitCount += 8;
+        }
+
+        bitCount -= count;
+        return (bitBuffer >>> bitCount) & ((1 << count) - 1);
+    }
+
+}
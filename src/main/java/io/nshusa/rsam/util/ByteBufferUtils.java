@@ -1,6 +1,7 @@
 package io.nshusa.rsam.util;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public final class ByteBufferUtils {
 
@@ -33,10 +34,24 @@ public final class ByteBufferUtils {
     }
 
     public static String getString(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            final byte[] data = buffer.array();
+            final int start = buffer.arrayOffset() + buffer.position();
+            final int end = buffer.arrayOffset() + buffer.limit();
+
+            int pos = start;
+            while (pos < end && data[pos] != 10) {
+                pos++;
+            }
+
+            buffer.position(buffer.position() + (pos < end ? pos - start + 1 : pos - start));
+            return new String(data, start, pos - start, StandardCharsets.ISO_8859_1);
+        }
+
         final StringBuilder bldr = new StringBuilder();
         byte b;
         while (buffer.hasRemaining() && (b = buffer.get()) != 10) {
-            bldr.append((char) b);
+            bldr.append((char) (b & 0xFF));
         }
         return bldr.toString();
     }
@@ -0,0 +1,170 @@
+package io.nshusa.rsam.util;
+
+import io.nshusa.rsam.RSFileStore;
+import io.nshusa.rsam.binary.RSArchive;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Picks the smallest encoding the client can read when writing files. The default encoding is always tried first, then
+ * the alternatives are tried in turn until one of them runs past the time budget, and the smallest output is kept.
+ *
+ * Store files are gzipped, so the alternatives are the other gzip levels. Archives are either compressed as a whole or
+ * entry by entry, so the alternative is the other mode.
+ */
+public final class CompressionPolicy {
+
+    /**
+     * The gzip levels tried after the default one, most likely to help first.
+     */
+    private static final int[] GZIP_LEVELS = {Deflater.BEST_COMPRESSION, 8, 7, 5, 4, 3, 2, Deflater.BEST_SPEED};
+
+    public static final class Result {
+
+        private final byte[] data;
+        private final int defaultSize;
+        private final String choice;
+
+        private Result(byte[] data, int defaultSize, String choice) {
+            this.data = data;
+            this.defaultSize = defaultSize;
+            this.choice = choice;
+        }
+
+        /**
+         * @return The smallest encoding found.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return The size of the encoding that would have been written without this policy.
+         */
+        public int getDefaultSize() {
+            return defaultSize;
+        }
+
+        /**
+         * @return The number of bytes saved over the default encoding.
+         */
+        public int getSaved() {
+            return defaultSize - data.length;
+        }
+
+        /**
+         * @return A description of the chosen encoding, such as {@code "gzip level 9"}.
+         */
+        public String getChoice() {
+            return choice;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d -> %d bytes", choice, defaultSize, data.length);
+        }
+
+    }
+
+    private final long budget;
+
+    private final AtomicLong saved = new AtomicLong();
+
+    /**
+     * @param budget The time each file may spend on alternative encodings after the default one.
+     */
+    public CompressionPolicy(long budget, TimeUnit unit) {
+        this.budget = unit.toNanos(budget);
+    }
+
+    /**
+     * Gzips a store file at whichever level gives the smallest output.
+     */
+    public Result gzip(byte[] uncompressed) throws IOException {
+        final long start = System.nanoTime();
+
+        byte[] best = CompressionUtils.gzip(uncompressed);
+        String choice = "gzip default level";
+        final int defaultSize = best.length;
+
+        for (int level : GZIP_LEVELS) {
+            if (System.nanoTime() - start > budget) {
+                break;
+            }
+
+            final byte[] compressed = CompressionUtils.gzip(uncompressed, level);
+
+            if (compressed.length < best.length) {
+                best = compressed;
+                choice = "gzip level " + level;
+            }
+        }
+
+        return record(new Result(best, defaultSize, choice));
+    }
+
+    /**
+     * Encodes an archive in whichever mode gives the smallest output. The archive itself is left in its own mode.
+     */
+    public Result encode(RSArchive archive) throws IOException {
+        final long start = System.nanoTime();
+
+        final byte[] encoded = archive.encode();
+        final boolean extracted = archive.isExtracted();
+
+        Result result = new Result(encoded, encoded.length, describe(extracted));
+
+        if (System.nanoTime() - start <= budget && archive.getEntryCount() > 0) {
+            final RSArchive converted = archive.copy();
+            converted.setExtracted(!extracted);
+
+            final byte[] alternative = converted.encode();
+
+            if (alternative.length < encoded.length) {
+                result = new Result(alternative, encoded.length, describe(!extracted));
+            }
+        }
+
+        return record(result);
+    }
+
+    /**
+     * Gzips a file with {@link #gzip(byte[])} and writes it to the store.
+     *
+     * @return The result, or {@code null} if the store could not write the file.
+     */
+    public Result writeFile(RSFileStore store, int fileId, byte[] uncompressed) throws IOException {
+        final Result result = gzip(uncompressed);
+        return store.writeFile(fileId, result.getData()) ? result : null;
+    }
+
+    /**
+     * Encodes an archive with {@link #encode(RSArchive)} and writes it to the store.
+     *
+     * @return The result, or {@code null} if the store could not write the file.
+     */
+    public Result writeArchive(RSFileStore store, int fileId, RSArchive archive) throws IOException {
+        final Result result = encode(archive);
+        return store.writeFile(fileId, result.getData()) ? result : null;
+    }
+
+    private static String describe(boolean extracted) {
+        return extracted ? "archive compressed as a whole" : "archive compressed per entry";
+    }
+
+    private Result record(Result result) {
+        saved.addAndGet(result.getSaved());
+        return result;
+    }
+
+    /**
+     * @return The number of bytes saved over the default encodings by every file this policy has encoded.
+     */
+    public long getBytesSaved() {
+        return saved.get();
+    }
+
+}
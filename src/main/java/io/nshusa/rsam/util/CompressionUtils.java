@@ -5,6 +5,8 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -16,6 +18,11 @@ import java.util.zip.GZIPOutputStream;
  */
 public final class CompressionUtils {
 
+    /**
+     * The shared cache of decompressed data, disabled until it is given a size.
+     */
+    private static final DecompressionCache cache = new DecompressionCache();
+
     /**
      * Bzip2s the specified array, removing the header.
      *
@@ -37,6 +44,83 @@ public final class CompressionUtils {
         }
     }
 
+    /**
+     * Bzip2s each of the specified arrays on the common pool, removing the headers. The output is the same as calling
+     * {@link #bzip2(byte[])} on each array in turn.
+     *
+     * @param uncompressed The uncompressed arrays, {@code null} elements are skipped.
+     * @return The compressed arrays, in the same order.
+     * @throws IOException If there is an error compressing an array.
+     */
+    public static byte[][] bzip2(byte[][] uncompressed) throws IOException {
+        return bzip2(uncompressed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Bzip2s each of the specified arrays in parallel on the specified pool, removing the headers. The output is the
+     * same as calling {@link #bzip2(byte[])} on each array in turn.
+     *
+     * @param uncompressed The uncompressed arrays, {@code null} elements are skipped.
+     * @param pool         The pool to compress on.
+     * @return The compressed arrays, in the same order.
+     * @throws IOException If there is an error compressing an array.
+     */
+    public static byte[][] bzip2(byte[][] uncompressed, ForkJoinPool pool) throws IOException {
+        final byte[][] compressed = new byte[uncompressed.length][];
+
+        ParallelUtils.forEach(pool, 0, uncompressed.length, i -> {
+            if (uncompressed[i] != null) {
+                compressed[i] = bzip2(uncompressed[i]);
+            }
+        });
+
+        return compressed;
+    }
+
+    /**
+     * The buffer between {@link #bzip2(OutputStream)} and its destination, as the compressor writes its output a byte at
+     * a time.
+     */
+    private static final int BZIP2_OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Creates a stream that bzip2s everything written to it into the specified stream, removing the header. The output
+     * is buffered, closing the returned stream finishes the compressed data and flushes it but leaves {@code out} open.
+     *
+     * @param out The stream to write the compressed data to.
+     * @return The compressing stream.
+     * @throws IOException If there is an error creating the stream.
+     */
+    public static OutputStream bzip2(OutputStream out) throws IOException {
+        return new BZip2CompressorOutputStream(new FilterOutputStream(new BufferedOutputStream(out, BZIP2_OUTPUT_BUFFER_SIZE)) {
+
+            private int skipped;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (skipped < 4) {
+                    skipped++;
+                    return;
+                }
+
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                int skip = Math.min(4 - skipped, len);
+                skipped += skip;
+                out.write(b, off + skip, len - skip);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+
+        }, 1);
+    }
+
     /**
      * Debzip2s the compressed array and places the result into the decompressed array.
      *
@@ -45,18 +129,78 @@ public final class CompressionUtils {
      * @throws IOException If there is an error decompressing the array.
      */
     public static void debzip2(byte[] compressed, byte[] decompressed) throws IOException {
-        byte[] newCompressed = new byte[compressed.length + 4];
+        debzip2(compressed, 0, compressed.length, decompressed, 0, decompressed.length);
+    }
+
+    /**
+     * Debzip2s part of the compressed array into part of the decompressed array, without copying either of them.
+     *
+     * @param compressed         The compressed array, <strong>without</strong> the header.
+     * @param compressedOffset   The offset of the compressed data.
+     * @param compressedLength   The length of the compressed data.
+     * @param decompressed       The decompressed array.
+     * @param decompressedOffset The offset to place the decompressed data at.
+     * @param decompressedLength The number of bytes to decompress.
+     * @throws IOException If there is an error decompressing the array.
+     */
+    public static void debzip2(byte[] compressed, int compressedOffset, int compressedLength, byte[] decompressed,
+                               int decompressedOffset, int decompressedLength) throws IOException {
+        if (!cache.isEnabled()) {
+            bunzip2(compressed, compressedOffset, compressedLength, decompressed, decompressedOffset, decompressedLength);
+            return;
+        }
+
+        final ByteBuffer key = ByteBuffer.wrap(compressed, compressedOffset, compressedLength);
+        final long hash = DecompressionCache.hash(key);
+        final byte[] cached = cache.get(hash, DecompressionCache.BZIP2, key, decompressedLength);
+
+        if (cached != null) {
+            System.arraycopy(cached, 0, decompressed, decompressedOffset, decompressedLength);
+            return;
+        }
+
+        bunzip2(compressed, compressedOffset, compressedLength, decompressed, decompressedOffset, decompressedLength);
+        cache.put(hash, DecompressionCache.BZIP2, key, decompressedLength, decompressed, decompressedOffset, decompressedLength);
+    }
+
+    private static void bunzip2(byte[] compressed, int compressedOffset, int compressedLength, byte[] decompressed,
+                                int decompressedOffset, int decompressedLength) throws IOException {
+        if (BZip2Decompressor.decompress(compressed, compressedOffset, compressedLength, decompressed, decompressedOffset, decompressedLength)) {
+            return;
+        }
+
+        // randomised blocks are only written by very old versions of bzip2, leave those to commons-compress
+        byte[] newCompressed = new byte[compressedLength + 4];
         newCompressed[0] = 'B';
         newCompressed[1] = 'Z';
         newCompressed[2] = 'h';
         newCompressed[3] = '1';
-        System.arraycopy(compressed, 0, newCompressed, 4, compressed.length);
+        System.arraycopy(compressed, compressedOffset, newCompressed, 4, compressedLength);
 
         try (DataInputStream is = new DataInputStream(new BZip2CompressorInputStream(new ByteArrayInputStream(newCompressed)))) {
-            is.readFully(decompressed);
+            is.readFully(decompressed, decompressedOffset, decompressedLength);
         }
     }
 
+    /**
+     * Debzip2s the remaining data in the compressed buffer and places the result into the decompressed array. The
+     * position of the buffer is not changed, and buffers backed by an array are read in place.
+     *
+     * @param compressed   The compressed buffer, <strong>without</strong> the header.
+     * @param decompressed The decompressed array.
+     * @throws IOException If there is an error decompressing the buffer.
+     */
+    public static void debzip2(ByteBuffer compressed, byte[] decompressed) throws IOException {
+        if (compressed.hasArray()) {
+            debzip2(compressed.array(), compressed.arrayOffset() + compressed.position(), compressed.remaining(), decompressed, 0, decompressed.length);
+            return;
+        }
+
+        byte[] copy = new byte[compressed.remaining()];
+        compressed.duplicate().get(copy);
+        debzip2(copy, decompressed);
+    }
+
     /**
      * Degzips the compressed array and places the results into the decompressed array.
      *
@@ -65,20 +209,79 @@ public final class CompressionUtils {
      * @throws IOException If an I/O error occurs.
      */
     public static void degzip(byte[] compressed, byte[] decompressed) throws IOException {
+        if (!cache.isEnabled()) {
+            gunzip(compressed, decompressed);
+            return;
+        }
+
+        final ByteBuffer key = ByteBuffer.wrap(compressed);
+        final long hash = DecompressionCache.hash(key);
+        final byte[] cached = cache.get(hash, DecompressionCache.GZIP, key, decompressed.length);
+
+        if (cached != null) {
+            System.arraycopy(cached, 0, decompressed, 0, decompressed.length);
+            return;
+        }
+
+        gunzip(compressed, decompressed);
+        cache.put(hash, DecompressionCache.GZIP, key, decompressed.length, decompressed, 0, decompressed.length);
+    }
+
+    private static void gunzip(byte[] compressed, byte[] decompressed) throws IOException {
+        if (GZipDecompressor.decompress(compressed, 0, compressed.length, decompressed, 0, decompressed.length)) {
+            return;
+        }
+
+        // the data continues with another gzip member
         try (DataInputStream is = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(compressed)))) {
             is.readFully(decompressed);
         }
     }
 
     /**
-     * Degzips <strong>all</strong> of the datain the specified {@link ByteBuffer}.
+     * Degzips <strong>all</strong> of the remaining data in the specified {@link ByteBuffer}, which may be a direct
+     * buffer. The position of the buffer is not changed.
      *
      * @param compressed The compressed buffer.
      * @return The decompressed array.
      * @throws IOException If there is an error decompressing the buffer.
      */
     public static byte[] degzip(ByteBuffer compressed) throws IOException {
-        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed.array()));
+        if (!cache.isEnabled()) {
+            return gunzip(compressed);
+        }
+
+        final long hash = DecompressionCache.hash(compressed);
+        final byte[] cached = cache.get(hash, DecompressionCache.GZIP, compressed, -1);
+
+        if (cached != null) {
+            return cached.clone();
+        }
+
+        final byte[] decompressed = gunzip(compressed);
+        cache.put(hash, DecompressionCache.GZIP, compressed, -1, decompressed, 0, decompressed.length);
+        return decompressed;
+    }
+
+    private static byte[] gunzip(ByteBuffer compressed) throws IOException {
+        byte[] decompressed = GZipDecompressor.decompress(compressed);
+
+        if (decompressed != null) {
+            return decompressed;
+        }
+
+        // concatenated members or trailing data, which the stream handles
+        final InputStream in;
+
+        if (compressed.hasArray()) {
+            in = new ByteArrayInputStream(compressed.array(), compressed.arrayOffset() + compressed.position(), compressed.remaining());
+        } else {
+            byte[] copy = new byte[compressed.remaining()];
+            compressed.duplicate().get(copy);
+            in = new ByteArrayInputStream(copy);
+        }
+
+        try (InputStream is = new GZIPInputStream(in);
              ByteArrayOutputStream out = new ByteArrayOutputStream()) {
             byte[] buffer = new byte[1024];
 
@@ -112,6 +315,78 @@ public final class CompressionUtils {
         }
     }
 
+    /**
+     * Gzips the specified array at the specified compression level.
+     *
+     * @param uncompressed The uncompressed array.
+     * @param level        The compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+     * @return The compressed array.
+     * @throws IOException If there is an error compressing the array.
+     */
+    public static byte[] gzip(byte[] uncompressed, int level) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+
+        try (DeflaterOutputStream os = new GZIPOutputStream(bout) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            os.write(uncompressed);
+            os.finish();
+            return bout.toByteArray();
+        }
+    }
+
+    /**
+     * Sets the size of the decompression cache, which is shared by every {@code debzip2} and {@code degzip} call. Data
+     * that has already been decompressed is copied out of the cache instead of being decompressed again. The cache is
+     * disabled until this is set.
+     *
+     * @param bytes The maximum number of compressed and decompressed bytes to keep, or {@code 0} to disable the cache.
+     */
+    public static void setDecompressionCacheSize(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException(String.format("bytes=%d must not be negative", bytes));
+        }
+
+        cache.setCapacity(bytes);
+    }
+
+    /**
+     * @return The maximum size of the decompression cache in bytes, {@code 0} if it is disabled.
+     */
+    public static long getDecompressionCacheSize() {
+        return cache.getCapacity();
+    }
+
+    /**
+     * @return The number of bytes held by the decompression cache.
+     */
+    public static long getDecompressionCacheUsage() {
+        return cache.getSize();
+    }
+
+    /**
+     * @return The number of decompressions answered by the cache since it was last cleared.
+     */
+    public static long getDecompressionCacheHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * @return The number of decompressions the cache could not answer since it was last cleared.
+     */
+    public static long getDecompressionCacheMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Empties the decompression cache and resets its statistics.
+     */
+    public static void clearDecompressionCache() {
+        cache.clear();
+    }
+
     /**
      * Default private constructor to prevent instantiation.
      */
@@ -0,0 +1,176 @@
+package io.nshusa.rsam.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of decompressed data keyed by a hash of the compressed bytes, so identical payloads are only decompressed
+ * once. A copy of the compressed bytes is kept with each entry and compared on every hit, so a hash collision is never
+ * mistaken for a match. Both copies count towards the capacity.
+ */
+final class DecompressionCache {
+
+    static final int BZIP2 = 0;
+    static final int GZIP = 1;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+
+    private static final class Entry {
+
+        private final int codec;
+        private final int length;
+        private final byte[] compressed;
+        private final byte[] decompressed;
+
+        private Entry(int codec, int length, byte[] compressed, byte[] decompressed) {
+            this.codec = codec;
+            this.length = length;
+            this.compressed = compressed;
+            this.decompressed = decompressed;
+        }
+
+        private long size() {
+            return compressed.length + decompressed.length;
+        }
+
+    }
+
+    // most recently used last
+    private final Map<Long, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+
+    private volatile long capacity;
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Hashes the remaining bytes of the buffer, without changing its position.
+     */
+    static long hash(ByteBuffer buffer) {
+        final ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        long hash = PRIME3 + in.remaining();
+
+        while (in.remaining() >= Long.BYTES) {
+            hash ^= Long.rotateLeft(in.getLong() * PRIME2, 31) * PRIME1;
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME3;
+        }
+
+        while (in.hasRemaining()) {
+            hash ^= (in.get() & 0xFF) * PRIME3;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        return hash;
+    }
+
+    private static long key(long hash, int codec, int length) {
+        return hash ^ (((long) length << 1 | codec) * PRIME2);
+    }
+
+    /**
+     * @param length The number of decompressed bytes wanted, or {@code -1} for all of them.
+     * @return The cached decompressed array, which must not be modified, or {@code null} on a miss.
+     */
+    byte[] get(long hash, int codec, ByteBuffer compressed, int length) {
+        final Entry entry;
+
+        synchronized (entries) {
+            entry = entries.get(key(hash, codec, length));
+        }
+
+        if (entry == null || entry.codec != codec || entry.length != length || !ByteBuffer.wrap(entry.compressed).equals(compressed)) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.decompressed;
+    }
+
+    void put(long hash, int codec, ByteBuffer compressed, int length, byte[] decompressed, int offset, int decompressedLength) {
+        final long entrySize = (long) compressed.remaining() + decompressedLength;
+
+        if (entrySize > capacity) {
+            return;
+        }
+
+        final byte[] compressedCopy = new byte[compressed.remaining()];
+        compressed.duplicate().get(compressedCopy);
+
+        final byte[] decompressedCopy = new byte[decompressedLength];
+        System.arraycopy(decompressed, offset, decompressedCopy, 0, decompressedLength);
+
+        final Entry entry = new Entry(codec, length, compressedCopy, decompressedCopy);
+
+        synchronized (entries) {
+            final Entry previous = entries.put(key(hash, codec, length), entry);
+
+            if (previous != null) {
+                size -= previous.size();
+            }
+
+            size += entry.size();
+            trim();
+        }
+    }
+
+    private void trim() {
+        final Iterator<Entry> it = entries.values().iterator();
+
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().size();
+            it.remove();
+        }
+    }
+
+    void setCapacity(long capacity) {
+        synchronized (entries) {
+            this.capacity = capacity;
+            trim();
+        }
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+
+        hits.set(0);
+        misses.set(0);
+    }
+
+}
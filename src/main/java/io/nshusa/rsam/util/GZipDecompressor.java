@@ -0,0 +1,266 @@
+package io.nshusa.rsam.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A gzip decompressor that parses the gzip header and trailer itself and inflates with a per-thread {@link Inflater},
+ * so that a single member can be inflated straight into an exactly sized array. Input that is not a single member
+ * (concatenated members or trailing data) is reported back so the caller can fall back to {@code GZIPInputStream}.
+ */
+final class GZipDecompressor {
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final int TRAILER_LENGTH = 8;
+
+    /**
+     * The most that deflate can expand data by, so a larger trailer size can only come from trailing data or corruption.
+     */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private static final ThreadLocal<GZipDecompressor> decompressors = ThreadLocal.withInitial(GZipDecompressor::new);
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+
+    // input for buffers without an accessible array is copied through this in chunks
+    private final byte[] chunk = new byte[8192];
+    private final byte[] probe = new byte[1];
+
+    private ByteBuffer source;
+    private int written;
+
+    private GZipDecompressor() {
+
+    }
+
+    /**
+     * Inflates all of the remaining data in the specified buffer, without changing its position.
+     *
+     * @return The decompressed array, or {@code null} if the data is not exactly one gzip member or its trailer size is
+     * out of range.
+     * @throws IOException If the data is not in the gzip format or is corrupt.
+     */
+    static byte[] decompress(ByteBuffer compressed) throws IOException {
+        final ByteBuffer buffer = compressed.duplicate();
+
+        if (buffer.remaining() < TRAILER_LENGTH) {
+            readHeader(buffer);
+            throw new EOFException("unexpected end of gzip data");
+        }
+
+        final int trailer = buffer.limit() - TRAILER_LENGTH;
+        final int size = readIntLE(buffer, trailer + 4);
+
+        readHeader(buffer);
+
+        // the trailer size is not trusted to size the output unless deflate could have produced it
+        if (size < 0 || buffer.position() > trailer || size > (long) (trailer - buffer.position()) * MAX_DEFLATE_RATIO) {
+            return null;
+        }
+
+        final byte[] decompressed = new byte[size];
+        final GZipDecompressor decompressor = decompressors.get();
+
+        try {
+            decompressor.inflate(buffer, decompressed, 0, size);
+
+            // the trailer must directly follow the deflated data, anything else means more than one member
+            if (decompressor.written != size || !decompressor.finish()) {
+                return null;
+            }
+
+            final CRC32 crc = decompressor.crc;
+            crc.reset();
+            crc.update(decompressed, 0, size);
+
+            if (readIntLE(buffer, trailer) != (int) crc.getValue()) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+        } finally {
+            decompressor.source = null;
+        }
+
+        return decompressed;
+    }
+
+    /**
+     * Inflates the specified data into {@code decompressedLength} bytes of the decompressed array.
+     *
+     * @return {@code false} if the first member ended early but more data follows it, in which case the caller should
+     * fall back to a stream that reads every member.
+     * @throws IOException If the data is not in the gzip format, is corrupt or ends before enough bytes were inflated.
+     */
+    static boolean decompress(byte[] compressed, int compressedOffset, int compressedLength, byte[] decompressed,
+                              int decompressedOffset, int decompressedLength) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(compressed, compressedOffset, compressedLength);
+        readHeader(buffer);
+
+        final GZipDecompressor decompressor = decompressors.get();
+
+        try {
+            final int remaining = decompressor.inflate(buffer, decompressed, decompressedOffset, decompressedLength);
+
+            if (decompressor.inflater.finished() && decompressor.written < decompressedLength) {
+                if (remaining > TRAILER_LENGTH) {
+                    return false;
+                }
+
+                throw new EOFException("unexpected end of gzip data");
+            }
+        } finally {
+            decompressor.source = null;
+        }
+
+        return true;
+    }
+
+    /**
+     * Inflates from the position of the buffer until the destination is full or the deflated data ends.
+     *
+     * @return The number of input bytes left after the deflated data.
+     */
+    private int inflate(ByteBuffer buffer, byte[] dst, int offset, int length) throws IOException {
+        inflater.reset();
+        source = buffer;
+        written = 0;
+
+        if (buffer.hasArray()) {
+            inflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        }
+
+        try {
+            while (written < length) {
+                final int inflated = inflater.inflate(dst, offset + written, length - written);
+                written += inflated;
+
+                if (inflater.finished()) {
+                    break;
+                }
+
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("gzip data requires a preset dictionary");
+                    }
+
+                    if (inflater.needsInput() && !fill()) {
+                        throw new EOFException("unexpected end of gzip data");
+                    }
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new ZipException(ex.getMessage() != null ? ex.getMessage() : "invalid gzip data");
+        }
+
+        return inflater.getRemaining() + buffer.remaining();
+    }
+
+    /**
+     * Checks that the deflated data ends exactly where the destination was filled.
+     */
+    private boolean finish() throws IOException {
+        try {
+            while (!inflater.finished()) {
+                if (inflater.inflate(probe, 0, 1) != 0) {
+                    return false;
+                }
+
+                if (inflater.needsInput() && !fill()) {
+                    throw new EOFException("unexpected end of gzip data");
+                }
+
+                if (inflater.needsDictionary()) {
+                    throw new ZipException("gzip data requires a preset dictionary");
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new ZipException(ex.getMessage() != null ? ex.getMessage() : "invalid gzip data");
+        }
+
+        return inflater.getRemaining() + source.remaining() == TRAILER_LENGTH;
+    }
+
+    private boolean fill() {
+        final int length = Math.min(chunk.length, source.remaining());
+
+        if (length == 0) {
+            return false;
+        }
+
+        source.get(chunk, 0, length);
+        inflater.setInput(chunk, 0, length);
+        return true;
+    }
+
+    private static void readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 10) {
+            throw new EOFException("unexpected end of gzip header");
+        }
+
+        if ((buffer.get() & 0xFF) != 0x1F || (buffer.get() & 0xFF) != 0x8B) {
+            throw new ZipException("Not in GZIP format");
+        }
+
+        if (buffer.get() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+
+        final int flags = buffer.get() & 0xFF;
+
+        // mtime, xfl, os
+        skip(buffer, 6);
+
+        if ((flags & FEXTRA) != 0) {
+            skip(buffer, 2);
+            skip(buffer, (buffer.get(buffer.position() - 2) & 0xFF) | (buffer.get(buffer.position() - 1) & 0xFF) << 8);
+        }
+
+        if ((flags & FNAME) != 0) {
+            skipString(buffer);
+        }
+
+        if ((flags & FCOMMENT) != 0) {
+            skipString(buffer);
+        }
+
+        if ((flags & FHCRC) != 0) {
+            skip(buffer, 2);
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, int length) throws EOFException {
+        if (buffer.remaining() < length) {
+            throw new EOFException("unexpected end of gzip header");
+        }
+
+        buffer.position(buffer.position() + length);
+    }
+
+    private static void skipString(ByteBuffer buffer) throws EOFException {
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                throw new EOFException("unexpected end of gzip header");
+            }
+
+            if (buffer.get() == 0) {
+                return;
+            }
+        }
+    }
+
+    private static int readIntLE(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xFF) | (buffer.get(index + 1) & 0xFF) << 8 | (buffer.get(index + 2) & 0xFF) << 16
+                | (buffer.get(index + 3) & 0xFF) << 24;
+    }
+
+}
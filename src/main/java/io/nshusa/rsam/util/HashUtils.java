@@ -7,14 +7,38 @@ public final class HashUtils {
     }
 
     public static int nameToHash(String name) {
+        return nameToHash(name, 0, name.length());
+    }
+
+    /**
+     * Hashes part of a name without creating an upper-cased copy of it.
+     */
+    public static int nameToHash(CharSequence name, int offset, int length) {
         int hash = 0;
-        name = name.toUpperCase();
-        for (int i = 0; i < name.length(); i++) {
-            hash = (hash * 61 + name.charAt(i)) - 32;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash * 61 + toUpperCase(name.charAt(i))) - 32;
         }
         return hash;
     }
 
+    /**
+     * Hashes part of a Latin-1 encoded name without creating an upper-cased copy of it.
+     */
+    public static int nameToHash(byte[] name, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash * 61 + toUpperCase((char) (name[i] & 0xFF))) - 32;
+        }
+        return hash;
+    }
+
+    private static char toUpperCase(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return (char) (c - 32);
+        }
+        return c < 128 ? c : Character.toUpperCase(c);
+    }
+
     public static long hashSpriteName(String name) {
         name = name.toUpperCase();
         long hash = 0;
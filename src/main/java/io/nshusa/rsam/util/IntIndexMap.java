@@ -0,0 +1,136 @@
+package io.nshusa.rsam.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing map from {@code int} keys to non-negative {@code int} indices, without boxing.
+ */
+public final class IntIndexMap {
+
+    private int[] keys;
+
+    // index + 1, so zero marks an empty slot
+    private int[] values;
+
+    private int mask;
+
+    private int size;
+
+    public IntIndexMap() {
+        this(8);
+    }
+
+    public IntIndexMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2) - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return The index mapped to {@code key}, or {@code -1} if there is none.
+     */
+    public int get(int key) {
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int value = values[slot];
+
+            if (value == 0) {
+                return -1;
+            }
+
+            if (keys[slot] == key) {
+                return value - 1;
+            }
+        }
+    }
+
+    public void put(int key, int index) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (values[slot] == 0) {
+                keys[slot] = key;
+                values[slot] = index + 1;
+                size++;
+                return;
+            }
+
+            if (keys[slot] == key) {
+                values[slot] = index + 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The index that was mapped to {@code key}, or {@code -1} if there was none.
+     */
+    public int remove(int key) {
+        int slot = mix(key) & mask;
+
+        while (true) {
+            if (values[slot] == 0) {
+                return -1;
+            }
+
+            if (keys[slot] == key) {
+                break;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        final int removed = values[slot] - 1;
+        values[slot] = 0;
+        size--;
+
+        // shift back the following entries of the probe run so lookups never stop early at the freed slot
+        for (int next = (slot + 1) & mask; values[next] != 0; next = (next + 1) & mask) {
+            int home = mix(keys[next]) & mask;
+
+            boolean reachable = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+
+            if (!reachable) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                values[next] = 0;
+                slot = next;
+            }
+        }
+
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+
+        keys = new int[oldKeys.length << 1];
+        values = new int[oldValues.length << 1];
+        mask = keys.length - 1;
+        size = 0;
+
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldValues[slot] != 0) {
+                put(oldKeys[slot], oldValues[slot] - 1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package io.nshusa.rsam.util;
+
+import io.nshusa.rsam.binary.RSArchive;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A table of known archive entry names keyed by {@link HashUtils#nameToHash(String)}, used to turn entry hashes back into
+ * names.
+ */
+public final class NameDictionary {
+
+    private static final String DEFAULT_NAMES = "names.txt";
+
+    private static NameDictionary defaultDictionary;
+
+    private final IntIndexMap indices = new IntIndexMap();
+
+    private String[] names = new String[64];
+
+    private int size;
+
+    /**
+     * Gets the dictionary of names bundled with this library.
+     */
+    public static synchronized NameDictionary getDefault() {
+        if (defaultDictionary == null) {
+            try (InputStream is = NameDictionary.class.getResourceAsStream(DEFAULT_NAMES)) {
+                defaultDictionary = is == null ? new NameDictionary() : load(is);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        return defaultDictionary;
+    }
+
+    /**
+     * Loads a dictionary from a list of names, one per line. Blank lines and lines starting with {@code #} are skipped.
+     */
+    public static NameDictionary load(InputStream is) throws IOException {
+        final NameDictionary dictionary = new NameDictionary();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.ISO_8859_1))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                dictionary.add(line);
+            }
+        }
+
+        return dictionary;
+    }
+
+    /**
+     * Adds a name to this dictionary.
+     *
+     * @return {@code false} if the hash of the name was already known.
+     */
+    public boolean add(String name) {
+        final int hash = HashUtils.nameToHash(name);
+
+        if (indices.get(hash) != -1) {
+            return false;
+        }
+
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+
+        names[size] = name;
+        indices.put(hash, size++);
+        return true;
+    }
+
+    /**
+     * @return The name with the specified hash, or {@code null} if it is unknown.
+     */
+    public String lookup(int hash) {
+        final int index = indices.get(hash);
+        return index == -1 ? null : names[index];
+    }
+
+    public boolean contains(int hash) {
+        return indices.get(hash) != -1;
+    }
+
+    /**
+     * Resolves the names of every entry in an archive.
+     *
+     * @return The names in entry order, {@code null} for entries whose name is unknown.
+     */
+    public String[] resolve(RSArchive archive) {
+        final int[] hashes = archive.getHashes();
+        final String[] resolved = new String[hashes.length];
+
+        for (int i = 0; i < hashes.length; i++) {
+            resolved[i] = lookup(hashes[i]);
+        }
+
+        return resolved;
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,225 @@
+package io.nshusa.rsam.util;
+
+import io.nshusa.rsam.binary.RSArchive;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Recovers unknown archive entry names by hashing generated candidates and checking them against a set of target
+ * hashes.
+ *
+ * Candidates are built as {@code prefix + word [+ separator + word] [+ number] + suffix}. As
+ * {@link HashUtils#nameToHash(String)} is {@code hash * 61 + c - 32} over each character, appending a segment of
+ * length {@code n} with hash {@code h} to a name with hash {@code p} gives {@code p * 61^n + h}, so every segment is
+ * hashed once up front and each candidate only costs a few multiplications.
+ */
+public final class NameRecovery {
+
+    private static final class Segments {
+
+        private final ArrayList<String> names = new ArrayList<>();
+
+        // only the first size() elements are used, the arrays double as they fill up
+        private int[] hashes = new int[8];
+
+        private int[] powers = new int[8];
+
+        private void addAll(Collection<String> names) {
+            ensureCapacity(size() + names.size());
+            names.forEach(this::add);
+        }
+
+        private void ensureCapacity(int capacity) {
+            names.ensureCapacity(capacity);
+
+            if (hashes.length < capacity) {
+                final int length = Math.max(capacity, hashes.length * 2);
+                hashes = Arrays.copyOf(hashes, length);
+                powers = Arrays.copyOf(powers, length);
+            }
+        }
+
+        private void add(String name) {
+            final byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+
+            int power = 1;
+            for (int i = 0; i < bytes.length; i++) {
+                power *= 61;
+            }
+
+            final int index = names.size();
+            ensureCapacity(index + 1);
+
+            names.add(name);
+            hashes[index] = HashUtils.nameToHash(bytes, 0, bytes.length);
+            powers[index] = power;
+        }
+
+        private int size() {
+            return names.size();
+        }
+
+    }
+
+    private final IntIndexMap targets;
+
+    private final Segments prefixes = new Segments();
+    private final Segments words = new Segments();
+    private final Segments separators = new Segments();
+    private final Segments numbers = new Segments();
+    private final Segments suffixes = new Segments();
+
+    private int maxWords = 1;
+
+    private final AtomicLong candidates = new AtomicLong();
+
+    public NameRecovery(int[] targets) {
+        this.targets = new IntIndexMap(targets.length);
+
+        for (int i = 0; i < targets.length; i++) {
+            this.targets.put(targets[i], i);
+        }
+
+        prefixes.add("");
+        separators.add("");
+        numbers.add("");
+        suffixes.add("");
+    }
+
+    /**
+     * Creates a recovery for the entries of an archive whose names are not in the specified dictionary.
+     */
+    public static NameRecovery forArchive(RSArchive archive, NameDictionary known) {
+        return new NameRecovery(IntStream.of(archive.getHashes()).filter(hash -> !known.contains(hash)).toArray());
+    }
+
+    public NameRecovery addWords(Collection<String> words) {
+        this.words.addAll(words);
+        return this;
+    }
+
+    public NameRecovery addPrefixes(Collection<String> prefixes) {
+        this.prefixes.addAll(prefixes);
+        return this;
+    }
+
+    public NameRecovery addSeparators(Collection<String> separators) {
+        this.separators.addAll(separators);
+        return this;
+    }
+
+    public NameRecovery addSuffixes(Collection<String> suffixes) {
+        this.suffixes.addAll(suffixes);
+        return this;
+    }
+
+    /**
+     * Also tries every number from {@code 0} to {@code max} after the words.
+     */
+    public NameRecovery setMaxNumber(int max) {
+        numbers.ensureCapacity(numbers.size() + max + 1);
+
+        for (int number = 0; number <= max; number++) {
+            numbers.add(Integer.toString(number));
+        }
+        return this;
+    }
+
+    /**
+     * Sets how many words are joined into one candidate, either 1 or 2.
+     */
+    public NameRecovery setMaxWords(int maxWords) {
+        if (maxWords < 1 || maxWords > 2) {
+            throw new IllegalArgumentException(String.format("maxWords=%d must be 1 or 2", maxWords));
+        }
+        this.maxWords = maxWords;
+        return this;
+    }
+
+    public Map<Integer, Set<String>> run() throws IOException {
+        return run(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Tries every candidate, splitting the work by prefix and first word across the pool.
+     *
+     * @return Every candidate that matched a target, keyed by its hash. A hash can have more than one match as the hash
+     * is only 32 bits.
+     */
+    public Map<Integer, Set<String>> run(ForkJoinPool pool) throws IOException {
+        final Map<Integer, Set<String>> matches = new ConcurrentHashMap<>();
+
+        ParallelUtils.forEach(pool, 0, prefixes.size() * words.size(), task -> {
+            final int prefix = task / words.size();
+            final int word = task % words.size();
+
+            final int hash = prefixes.hashes[prefix] * words.powers[word] + words.hashes[word];
+
+            long tried = search(hash, prefix, word, -1, -1, matches);
+
+            if (maxWords > 1) {
+                for (int separator = 0; separator < separators.size(); separator++) {
+                    final int separated = hash * separators.powers[separator] + separators.hashes[separator];
+
+                    for (int second = 0; second < words.size(); second++) {
+                        tried += search(separated * words.powers[second] + words.hashes[second], prefix, word, separator, second, matches);
+                    }
+                }
+            }
+
+            candidates.addAndGet(tried);
+        });
+
+        return matches;
+    }
+
+    private long search(int hash, int prefix, int word, int separator, int second, Map<Integer, Set<String>> matches) {
+        final int[] numberHashes = numbers.hashes;
+        final int[] numberPowers = numbers.powers;
+        final int[] suffixHashes = suffixes.hashes;
+        final int[] suffixPowers = suffixes.powers;
+        final int numberCount = numbers.size();
+        final int suffixCount = suffixes.size();
+
+        for (int number = 0; number < numberCount; number++) {
+            final int numbered = hash * numberPowers[number] + numberHashes[number];
+
+            for (int suffix = 0; suffix < suffixCount; suffix++) {
+                final int candidate = numbered * suffixPowers[suffix] + suffixHashes[suffix];
+
+                if (targets.get(candidate) != -1) {
+                    final StringBuilder name = new StringBuilder(prefixes.names.get(prefix)).append(words.names.get(word));
+
+                    if (second != -1) {
+                        name.append(separators.names.get(separator)).append(words.names.get(second));
+                    }
+
+                    name.append(numbers.names.get(number)).append(suffixes.names.get(suffix));
+
+                    matches.computeIfAbsent(candidate, key -> ConcurrentHashMap.newKeySet()).add(name.toString());
+                }
+            }
+        }
+
+        return (long) numberCount * suffixCount;
+    }
+
+    /**
+     * @return The number of candidates tried so far.
+     */
+    public long getCandidates() {
+        return candidates.get();
+    }
+
+}
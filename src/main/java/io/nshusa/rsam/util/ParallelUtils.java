@@ -0,0 +1,63 @@
+package io.nshusa.rsam.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public final class ParallelUtils {
+
+    @FunctionalInterface
+    public interface IndexTask {
+
+        void run(int index) throws IOException;
+
+    }
+
+    private ParallelUtils() {
+
+    }
+
+    /**
+     * Runs the task for every index from {@code from} (inclusive) to {@code to} (exclusive) in parallel on the pool,
+     * blocking until all of them have finished.
+     *
+     * @throws InterruptedIOException If the calling thread is interrupted while waiting, in which case its interrupt
+     * flag is set again.
+     * @throws IOException If the task threw one, which is rethrown as it was. Unchecked exceptions and errors thrown by
+     * the task are rethrown as well.
+     */
+    public static void forEach(ForkJoinPool pool, int from, int to, IndexTask task) throws IOException {
+        try {
+            pool.submit(() -> IntStream.range(from, to).parallel().forEach(index -> {
+                try {
+                    task.run(index);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for parallel tasks");
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+}
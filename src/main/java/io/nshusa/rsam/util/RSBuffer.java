@@ -0,0 +1,177 @@
+package io.nshusa.rsam.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A big-endian reader over a {@code byte[]} with a plain {@code int} cursor, for the inner loops of the decoders.
+ *
+ * Reads are not checked against the limit, only against the bounds of the array, so decoders must only read data they
+ * know to be there. Moving the cursor is checked like {@link ByteBuffer#position(int)}, so a section offset past the end
+ * of the data fails as it would with a {@link ByteBuffer}. Positions are relative to the start of the wrapped region.
+ */
+public final class RSBuffer {
+
+    private final byte[] data;
+
+    // the array index of position 0 and of the limit
+    private final int offset;
+    private final int end;
+
+    // the array index of the next byte to read
+    private int position;
+
+    public RSBuffer(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public RSBuffer(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.end = offset + length;
+        this.position = offset;
+    }
+
+    /**
+     * Wraps the remaining data in a {@link ByteBuffer}, position 0 being its current position. The backing array is
+     * used directly when it is accessible, otherwise the remaining data is copied.
+     */
+    public static RSBuffer wrap(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new RSBuffer(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        final byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return new RSBuffer(copy);
+    }
+
+    public int position() {
+        return position - offset;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the position is negative or past the limit.
+     */
+    public RSBuffer position(int position) {
+        if (position < 0 || position > end - offset) {
+            throw new IllegalArgumentException(String.format("newPosition=%d must be within [0, %d]", position, end - offset));
+        }
+
+        this.position = offset + position;
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the new position is negative or past the limit.
+     */
+    public RSBuffer skip(int bytes) {
+        return position(position - offset + bytes);
+    }
+
+    public int limit() {
+        return end - offset;
+    }
+
+    public int remaining() {
+        return end - position;
+    }
+
+    public boolean hasRemaining() {
+        return position < end;
+    }
+
+    public byte get() {
+        return data[position++];
+    }
+
+    public int getUByte() {
+        return data[position++] & 0xFF;
+    }
+
+    public short getShort() {
+        final int pos = position;
+        position = pos + 2;
+        return (short) ((data[pos] & 0xFF) << 8 | data[pos + 1] & 0xFF);
+    }
+
+    public int getUShort() {
+        final int pos = position;
+        position = pos + 2;
+        return (data[pos] & 0xFF) << 8 | data[pos + 1] & 0xFF;
+    }
+
+    public int getUMedium() {
+        final int pos = position;
+        position = pos + 3;
+        return (data[pos] & 0xFF) << 16 | (data[pos + 1] & 0xFF) << 8 | data[pos + 2] & 0xFF;
+    }
+
+    public int getInt() {
+        final int pos = position;
+        position = pos + 4;
+        return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8 | data[pos + 3] & 0xFF;
+    }
+
+    /**
+     * Reads an unsigned byte if the next value is below 128, otherwise an unsigned short minus {@code 32768}.
+     */
+    public int getSmart() {
+        final int pos = position;
+        final int peek = data[pos] & 0xFF;
+
+        if (peek < 128) {
+            position = pos + 1;
+            return peek;
+        }
+
+        position = pos + 2;
+        return (peek << 8 | data[pos + 1] & 0xFF) - 32768;
+    }
+
+    /**
+     * Reads a Latin-1 string terminated by a newline or the limit.
+     */
+    public String getString() {
+        return getString(null);
+    }
+
+    /**
+     * Reads a Latin-1 string terminated by a newline or the limit, taking it from the specified pool if it is not
+     * {@code null}.
+     */
+    public String getString(StringPool pool) {
+        final int start = position;
+        int pos = start;
+
+        while (pos < end && data[pos] != 10) {
+            pos++;
+        }
+
+        position = pos < end ? pos + 1 : pos;
+
+        if (pool != null) {
+            return pool.intern(data, start, pos - start);
+        }
+
+        return new String(data, start, pos - start, StandardCharsets.ISO_8859_1);
+    }
+
+    public RSBuffer get(byte[] dst) {
+        return get(dst, 0, dst.length);
+    }
+
+    public RSBuffer get(byte[] dst, int dstOffset, int length) {
+        System.arraycopy(data, position, dst, dstOffset, length);
+        position += length;
+        return this;
+    }
+
+    /**
+     * @return The backing array, shared with this buffer.
+     */
+    public byte[] array() {
+        return data;
+    }
+
+}
@@ -0,0 +1,103 @@
+package io.nshusa.rsam.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pool of decoded Latin-1 strings, so that text repeated across a decode (such as widget actions and tooltips) is
+ * only kept once. Bytes are looked up before a string is built, so a string that is already pooled costs no allocation.
+ */
+public final class StringPool {
+
+    private String[] strings = new String[256];
+
+    // hash of each pooled string, valid where strings[slot] is not null
+    private int[] hashes = new int[256];
+
+    private int size;
+
+    /**
+     * Gets the pooled string for the specified Latin-1 bytes, adding it if it is not pooled yet.
+     */
+    public synchronized String intern(byte[] data, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + (data[i] & 0xFF);
+        }
+
+        final int mask = strings.length - 1;
+
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            final String string = strings[slot];
+
+            if (string == null) {
+                final String created = new String(data, offset, length, StandardCharsets.ISO_8859_1);
+                strings[slot] = created;
+                hashes[slot] = hash;
+
+                if (++size * 2 > strings.length) {
+                    grow();
+                }
+
+                return created;
+            }
+
+            if (hashes[slot] == hash && matches(string, data, offset, length)) {
+                return string;
+            }
+        }
+    }
+
+    private static boolean matches(String string, byte[] data, int offset, int length) {
+        if (string.length() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) != (data[offset + i] & 0xFF)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        final String[] oldStrings = strings;
+        final int[] oldHashes = hashes;
+
+        strings = new String[oldStrings.length << 1];
+        hashes = new int[oldHashes.length << 1];
+
+        final int mask = strings.length - 1;
+
+        for (int i = 0; i < oldStrings.length; i++) {
+            if (oldStrings[i] == null) {
+                continue;
+            }
+
+            int slot = mix(oldHashes[i]) & mask;
+            while (strings[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+
+            strings[slot] = oldStrings[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        strings = new String[256];
+        hashes = new int[256];
+        size = 0;
+    }
+
+}
@@ -0,0 +1,119 @@
+package io.nshusa.rsam;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CacheDeltaTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private IndexedFileSystem fs() throws IOException {
+        final Path root = folder.getRoot().toPath();
+        Files.createFile(root.resolve("main_file_cache.dat"));
+
+        final IndexedFileSystem fs = IndexedFileSystem.init(root);
+        assertTrue(fs.load());
+        assertTrue(fs.createStore(0));
+        assertTrue(fs.writeFile(0, 0, new byte[]{1}));
+        return fs;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void applyCreatesAddedStores() throws IOException {
+        final CacheDelta delta = new CacheDelta(Arrays.asList(
+                new CacheDelta.Change(CacheDelta.ADDED, 3, 1, new byte[]{7, 8}),
+                new CacheDelta.Change(CacheDelta.CHANGED, 0, 0, new byte[]{2})));
+
+        try (IndexedFileSystem fs = fs()) {
+            assertEquals(2, delta.apply(fs));
+            assertArrayEquals(new byte[]{2}, bytes(fs.readFile(0, 0)));
+            assertArrayEquals(new byte[]{7, 8}, bytes(fs.readFile(3, 1)));
+        }
+    }
+
+    @Test
+    public void applyWritesNothingWhenAChangedStoreIsMissing() throws IOException {
+        final CacheDelta delta = new CacheDelta(Arrays.asList(
+                new CacheDelta.Change(CacheDelta.CHANGED, 0, 0, new byte[]{2}),
+                new CacheDelta.Change(CacheDelta.ADDED, 2, 0, new byte[]{3}),
+                new CacheDelta.Change(CacheDelta.CHANGED, 4, 0, new byte[]{4})));
+
+        try (IndexedFileSystem fs = fs()) {
+            assertEquals(0, delta.apply(fs));
+            assertArrayEquals(new byte[]{1}, bytes(fs.readFile(0, 0)));
+            assertNull(fs.getStore(2));
+        }
+    }
+
+    @Test
+    public void encodeRoundTrips() throws IOException {
+        final CacheDelta delta = new CacheDelta(Arrays.asList(
+                new CacheDelta.Change(CacheDelta.REMOVED, 1, 9, new byte[0]),
+                new CacheDelta.Change(CacheDelta.ADDED, 0, 5, new byte[]{1, 2, 3})));
+
+        final CacheDelta decoded = CacheDelta.decode(ByteBuffer.wrap(delta.encode()));
+
+        assertEquals(2, decoded.getChanges().size());
+        assertEquals(0, decoded.getChanges().get(0).getStoreId());
+        assertArrayEquals(new byte[]{1, 2, 3}, decoded.getChanges().get(0).getData());
+        assertEquals(CacheDelta.REMOVED, decoded.getChanges().get(1).getType());
+        assertNotNull(decoded.getChanges().get(1).getData());
+    }
+
+    @Test
+    public void decodeRejectsLengthsPastTheEnd() throws IOException {
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+
+        try (DataOutputStream os = new DataOutputStream(new GZIPOutputStream(bout))) {
+            os.writeInt(1);
+            os.writeByte(CacheDelta.ADDED);
+            os.writeByte(0);
+            os.writeInt(0);
+            os.writeInt(Integer.MAX_VALUE);
+        }
+
+        assertFalse(decodes(bout.toByteArray()));
+
+        bout.reset();
+
+        try (DataOutputStream os = new DataOutputStream(new GZIPOutputStream(bout))) {
+            os.writeInt(Integer.MAX_VALUE);
+        }
+
+        assertFalse(decodes(bout.toByteArray()));
+    }
+
+    private static boolean decodes(byte[] packed) {
+        try {
+            CacheDelta.decode(ByteBuffer.wrap(packed));
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+}
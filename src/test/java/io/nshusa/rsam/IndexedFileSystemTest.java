@@ -0,0 +1,72 @@
+package io.nshusa.rsam;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedFileSystemTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void createdStoreIsFlattenedToTheSameIndex() throws IOException {
+        final Path source = folder.newFolder("source").toPath();
+        final Path target = folder.getRoot().toPath().resolve("target");
+
+        Files.createFile(source.resolve("main_file_cache.dat"));
+
+        final byte[] data = new byte[1500];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        try (IndexedFileSystem fs = IndexedFileSystem.init(source)) {
+            assertTrue(fs.load());
+            assertTrue(fs.createStore(5));
+            assertEquals(5, fs.getStore(5).getStoreId());
+            assertTrue(fs.writeFile(5, 3, data));
+            assertTrue(fs.flatten(target));
+        }
+
+        try (IndexedFileSystem flattened = IndexedFileSystem.init(target)) {
+            assertTrue(flattened.load());
+            assertEquals(5, flattened.getStore(5).getStoreId());
+            assertArrayEquals(data, bytes(flattened.readFile(5, 3)));
+        }
+    }
+
+    @Test
+    public void createdStoreCanBeReloaded() throws IOException {
+        final Path root = folder.getRoot().toPath();
+
+        Files.createFile(root.resolve("main_file_cache.dat"));
+
+        try (IndexedFileSystem fs = IndexedFileSystem.init(root)) {
+            assertTrue(fs.load());
+            assertTrue(fs.createStore(2));
+            assertTrue(fs.writeFile(2, 0, new byte[]{1, 2, 3}));
+        }
+
+        try (IndexedFileSystem fs = IndexedFileSystem.init(root)) {
+            assertTrue(fs.load());
+            assertArrayEquals(new byte[]{1, 2, 3}, bytes(fs.readFile(2, 0)));
+        }
+    }
+
+}
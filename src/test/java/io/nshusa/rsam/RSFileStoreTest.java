@@ -0,0 +1,129 @@
+package io.nshusa.rsam;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RSFileStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Accepts at most a few bytes per call and then nothing until it is drained, like a full non-blocking socket.
+     */
+    private static final class ThrottledChannel implements WritableByteChannel {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final int capacity;
+        private int available;
+
+        private ThrottledChannel(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void drain() {
+            available = capacity;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            final int length = Math.min(available, src.remaining());
+            final byte[] bytes = new byte[length];
+            src.get(bytes);
+            out.write(bytes, 0, length);
+            available -= length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+
+        }
+
+    }
+
+    private static byte[] data(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    private IndexedFileSystem fs(byte[] data) throws IOException {
+        final Path root = folder.getRoot().toPath();
+        Files.createFile(root.resolve("main_file_cache.dat"));
+
+        final IndexedFileSystem fs = IndexedFileSystem.init(root);
+        assertTrue(fs.load());
+        assertTrue(fs.createStore(0));
+        assertTrue(fs.writeFile(0, 7, data));
+        return fs;
+    }
+
+    @Test
+    public void partialTransferCanBeResumed() throws IOException {
+        final byte[] data = data(2000);
+
+        try (IndexedFileSystem fs = fs(data)) {
+            final RSFileStore store = fs.getStore(0);
+            final ThrottledChannel channel = new ThrottledChannel(333);
+
+            long offset = 0;
+            while (offset < data.length) {
+                channel.drain();
+                final long transferred = store.transferFile(7, offset, channel);
+                assertTrue(transferred > 0);
+                offset += transferred;
+            }
+
+            assertArrayEquals(data, channel.out.toByteArray());
+
+            channel.drain();
+            assertEquals(0, store.transferFile(7, data.length, channel));
+            assertEquals(-1, store.transferFile(7, data.length + 1, channel));
+            assertEquals(-1, store.transferFile(8, 0, channel));
+        }
+    }
+
+    @Test
+    public void wholeTransferMatchesRead() throws IOException {
+        final byte[] data = data(1500);
+
+        try (IndexedFileSystem fs = fs(data)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(fs.getStore(0).transferFile(7, Channels.newChannel(out)));
+            assertArrayEquals(data, out.toByteArray());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wholeTransferRejectsNonBlockingChannel() throws IOException {
+        final Pipe pipe = Pipe.open();
+
+        try (IndexedFileSystem fs = fs(data(10)); Pipe.SinkChannel sink = pipe.sink(); Pipe.SourceChannel source = pipe.source()) {
+            sink.configureBlocking(false);
+            fs.getStore(0).transferFile(7, sink);
+        }
+    }
+
+}
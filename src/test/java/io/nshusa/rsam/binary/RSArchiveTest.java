@@ -0,0 +1,158 @@
+package io.nshusa.rsam.binary;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RSArchiveTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Counts the writes made to a channel.
+     */
+    private static final class CountingChannel implements SeekableByteChannel {
+
+        private final SeekableByteChannel channel;
+
+        private int writes;
+
+        private CountingChannel(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            writes++;
+            return channel.write(src);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+    }
+
+    /**
+     * Creates a 1 MB archive that is compressed as a whole.
+     */
+    private static RSArchive archive() throws IOException {
+        final Random random = new Random(36);
+        final RSArchive archive = new RSArchive(new RSArchive.ArchiveEntry[0]);
+        archive.setExtracted(true);
+
+        for (int i = 0; i < 16; i++) {
+            final byte[] data = new byte[64 * 1024];
+
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) random.nextInt(16);
+            }
+
+            archive.writeFile(i, data);
+        }
+
+        return archive;
+    }
+
+    private long encodeTo(RSArchive archive, Path path) throws IOException {
+        final long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            archive.copy().encodeTo(channel);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void encodeToFileChannelMatchesEncode() throws IOException {
+        final RSArchive archive = archive();
+        final Path path = folder.newFile().toPath();
+
+        encodeTo(archive, path);
+
+        assertArrayEquals(archive.copy().encode(), Files.readAllBytes(path));
+    }
+
+    @Test
+    public void encodeToBuffersTheCompressedOutput() throws IOException {
+        final RSArchive archive = archive();
+        final Path path = folder.newFile().toPath();
+
+        try (CountingChannel channel = new CountingChannel(FileChannel.open(path, StandardOpenOption.WRITE))) {
+            archive.encodeTo(channel);
+
+            // the header and one write per 64 KB of compressed data, rather than a write per byte
+            assertTrue("writes=" + channel.writes, channel.writes <= 2 + channel.size() / (64 * 1024) + 1);
+        }
+
+        assertArrayEquals(archive.encode(), Files.readAllBytes(path));
+    }
+
+    @Test
+    public void encodeToFileChannelIsAsFastAsEncode() throws IOException {
+        final RSArchive archive = archive();
+        final Path path = folder.newFile().toPath();
+
+        long encode = Long.MAX_VALUE;
+        long encodeTo = Long.MAX_VALUE;
+
+        // the best of a few runs, so that warm up and noise don't decide the result
+        for (int run = 0; run < 3; run++) {
+            final long start = System.nanoTime();
+            archive.copy().encode();
+            encode = Math.min(encode, System.nanoTime() - start);
+
+            encodeTo = Math.min(encodeTo, encodeTo(archive, path));
+        }
+
+        assertTrue(String.format("encode=%dms encodeTo=%dms", encode / 1_000_000, encodeTo / 1_000_000), encodeTo < encode * 2);
+    }
+
+}
@@ -0,0 +1,30 @@
+package io.nshusa.rsam.binary;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class RSModelTest {
+
+    /**
+     * Builds a model that only has its footer, so every section it claims to have is missing.
+     */
+    private static byte[] footer(int vertices, int faces) {
+        final ByteBuffer buffer = ByteBuffer.allocate(18);
+        buffer.putShort((short) vertices).putShort((short) faces).put((byte) 0);
+        buffer.put((byte) 0).put((byte) 0xff).put((byte) 1).put((byte) 0).put((byte) 1);
+        buffer.putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        return buffer.array();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedSectionFails() {
+        new RSModel(footer(10, 20));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooShortForFooterFails() {
+        new RSModel(new byte[17]);
+    }
+
+}
@@ -0,0 +1,62 @@
+package io.nshusa.rsam.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompressionUtilsTest {
+
+    private static byte[][] payloads() {
+        final Random random = new Random(42);
+        final byte[][] payloads = new byte[24][];
+
+        for (int i = 0; i < payloads.length; i++) {
+            if (i % 7 == 3) {
+                continue;
+            }
+
+            payloads[i] = new byte[random.nextInt(20000)];
+
+            for (int j = 0; j < payloads[i].length; j++) {
+                payloads[i][j] = (byte) random.nextInt(i % 2 == 0 ? 4 : 256);
+            }
+        }
+
+        return payloads;
+    }
+
+    @Test
+    public void pooledBzip2MatchesSerialBzip2() throws IOException {
+        final byte[][] payloads = payloads();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            final byte[][] pooled = CompressionUtils.bzip2(payloads, pool);
+            final byte[][] common = CompressionUtils.bzip2(payloads);
+
+            for (int i = 0; i < payloads.length; i++) {
+                if (payloads[i] == null) {
+                    assertNull(pooled[i]);
+                    assertNull(common[i]);
+                    continue;
+                }
+
+                final byte[] serial = CompressionUtils.bzip2(payloads[i]);
+                assertArrayEquals(serial, pooled[i]);
+                assertArrayEquals(serial, common[i]);
+
+                final byte[] decompressed = new byte[payloads[i].length];
+                CompressionUtils.debzip2(pooled[i], decompressed);
+                assertArrayEquals(payloads[i], decompressed);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package io.nshusa.rsam.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ParallelUtilsTest {
+
+    @Test
+    public void runsEveryIndexOnce() throws IOException {
+        final AtomicIntegerArray runs = new AtomicIntegerArray(1000);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            ParallelUtils.forEach(pool, 10, runs.length(), runs::incrementAndGet);
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int i = 0; i < runs.length(); i++) {
+            assertEquals(i < 10 ? 0 : 1, runs.get(i));
+        }
+    }
+
+    @Test
+    public void rethrowsIOExceptionAsItWas() {
+        final IOException failure = new IOException("bad index");
+
+        try {
+            ParallelUtils.forEach(ForkJoinPool.commonPool(), 0, 100, index -> {
+                if (index == 42) {
+                    throw failure;
+                }
+            });
+            fail();
+        } catch (IOException ex) {
+            assertSame(failure, ex);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rethrowsUncheckedExceptions() throws IOException {
+        ParallelUtils.forEach(ForkJoinPool.commonPool(), 0, 100, index -> {
+            if (index == 7) {
+                throw new IllegalStateException();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,35 @@
+package io.nshusa.rsam.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RSBufferTest {
+
+    @Test
+    public void positionIsRelativeToTheWrappedRegion() {
+        final RSBuffer buffer = new RSBuffer(new byte[]{1, 2, 3, 4, 5}, 1, 3);
+
+        buffer.position(3);
+        assertEquals(0, buffer.remaining());
+
+        buffer.position(1).skip(1);
+        assertEquals(4, buffer.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void positionPastTheLimitFails() {
+        new RSBuffer(new byte[]{1, 2, 3, 4, 5}, 1, 3).position(4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativePositionFails() {
+        new RSBuffer(new byte[4]).position(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void skipPastTheLimitFails() {
+        new RSBuffer(new byte[4]).position(2).skip(3);
+    }
+
+}